@@ -235,6 +235,14 @@ public class CommandHandler {
         System.out.println("    Lists users who follow you\n");
         System.out.println("14. list_following: Format -> list_following");
         System.out.println("    Lists users you are following\n");
+        System.out.println("15. searchcaption:   Format -> searchcaption <caption words>");
+        System.out.println("    Example:         searchcaption sunset beach\n");
+        System.out.println("16. search_more:     Format -> search_more");
+        System.out.println("    Shows the next page of owners for the last search\n");
+        System.out.println("17. recommend:       Format -> recommend");
+        System.out.println("    Suggests accounts followed by people you follow\n");
+        System.out.println("18. notifications:   Format -> notifications");
+        System.out.println("    Shows the next page of older notifications\n");
         System.out.println("Type 'exit' to quit.");
         System.out.println("======================================");
     }
@@ -302,9 +310,29 @@ public class CommandHandler {
             case "search":
                 // MODIFIED to include language preference
                 String combined = "lang:" + languagePref + "|query:" + payload;
+                connection.startSearch(payload);
                 connection.sendMessage(new Message(MessageType.SEARCH, connection.getClientId(), combined));
                 break;
 
+            case "search_more": {
+                String cursor = connection.getSearchCursor();
+                if (cursor == null) {
+                    System.out.println("No more search results. Run a new search first.");
+                    break;
+                }
+                String morePayload = "lang:" + languagePref
+                        + "|query:" + connection.getLastSearchQuery()
+                        + "|cursor:" + cursor;
+                connection.markSearchMorePending();
+                connection.sendMessage(new Message(MessageType.SEARCH, connection.getClientId(), morePayload));
+                break;
+            }
+
+            case "searchcaption":
+                String captionQuery = "lang:" + languagePref + "|query:" + payload;
+                connection.sendMessage(new Message(MessageType.SEARCH_CAPTION, connection.getClientId(), captionQuery));
+                break;
+
             case "follow":
                 connection.sendMessage(new Message(MessageType.FOLLOW, connection.getClientId(), payload));
                 break;
@@ -329,6 +357,22 @@ public class CommandHandler {
                 ));
                 break;
 
+            case "recommend":
+                connection.sendMessage(new Message(
+                        MessageType.RECOMMEND,
+                        connection.getClientId(),
+                        ""
+                ));
+                break;
+
+            case "notifications":
+                connection.sendMessage(new Message(
+                        MessageType.NOTIFICATIONS,
+                        connection.getClientId(),
+                        ""
+                ));
+                break;
+
             case "access_profile":
                 connection.sendMessage(new Message(MessageType.ACCESS_PROFILE, connection.getClientId(), payload));
                 break;
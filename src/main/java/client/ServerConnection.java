@@ -5,7 +5,9 @@ import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import common.Constants;
 
@@ -155,6 +157,100 @@ public class ServerConnection {
         retryFile = null;
     }
 
+    // ── Followee presence ────────────────────────────────
+
+    /** Usernames of followees the server reported online. */
+    private final Set<String> onlineFollowees = new HashSet<>();
+
+    /**
+     * Applies a PRESENCE update from the server.
+     *
+     * @param online  usernames that came online
+     * @param offline usernames that went offline
+     */
+    public synchronized void updatePresence(List<String> online, List<String> offline) {
+        onlineFollowees.addAll(online);
+        onlineFollowees.removeAll(offline);
+    }
+
+    /**
+     * Checks whether a followee was last reported online.
+     *
+     * @param username the followee's username
+     * @return true if the followee is online
+     */
+    public synchronized boolean isFolloweeOnline(String username) {
+        return onlineFollowees.contains(username);
+    }
+
+    // ── Search paging state ──────────────────────────────
+
+    /** Query text of the most recent search, for fetching further pages. */
+    private String lastSearchQuery;
+
+    /** Cursor for the next page of the most recent search, or null if none. */
+    private String searchCursor;
+
+    /** True while a request for a further results page is outstanding. */
+    private boolean searchMorePending;
+
+    /**
+     * Records a new search, discarding any cursor from a previous one.
+     *
+     * @param query the query text sent to the server
+     */
+    public synchronized void startSearch(String query) {
+        lastSearchQuery = query;
+        searchCursor = null;
+        searchMorePending = false;
+    }
+
+    /**
+     * Retrieves the query text of the most recent search.
+     *
+     * @return the last query, or null if no search was made
+     */
+    public synchronized String getLastSearchQuery() {
+        return lastSearchQuery;
+    }
+
+    /**
+     * Retrieves the cursor for the next page of search results.
+     *
+     * @return the cursor, or null if there are no more pages
+     */
+    public synchronized String getSearchCursor() {
+        return searchCursor;
+    }
+
+    /**
+     * Stores the cursor returned with the latest results page.
+     *
+     * @param cursor the next-page cursor, or null if this was the last page
+     */
+    public synchronized void setSearchCursor(String cursor) {
+        searchCursor = cursor;
+    }
+
+    /**
+     * Marks that a further results page has been requested.
+     */
+    public synchronized void markSearchMorePending() {
+        searchMorePending = true;
+    }
+
+    /**
+     * Retrieves and clears the flag telling whether the next results page
+     * answers a request for more results rather than a new search.
+     *
+     * @return true if the results are a follow-up page
+     */
+    public synchronized boolean consumeSearchMorePending() {
+        boolean t = searchMorePending;
+        searchMorePending = false;
+        return t;
+    }
+
     // ── Comment‐approval handshake state ─────────────────
 
     /** Payload of an incoming comment approval ASK, if pending. */
@@ -81,6 +81,42 @@ public class ServerListener implements Runnable {
                             : "Following: " + p);
                     continue;
                 }
+                if (msg.getType() == MessageType.RECOMMEND_RESPONSE) {
+                    String p = msg.getPayload();
+                    System.out.println(p.isEmpty()
+                            ? "No suggestions right now; follow a few people first."
+                            : "Suggested (mutual connections): " + p);
+                    continue;
+                }
+
+                // Page of stored notifications: show it, then acknowledge it
+                if (msg.getType() == MessageType.NOTIFICATIONS_PAGE) {
+                    String[] lines = msg.getPayload().split("\n");
+                    Map<String, String> header = Util.parsePayload(lines[0]);
+                    for (int i = 1; i < lines.length; i++) {
+                        System.out.println("Notification: " + lines[i]);
+                    }
+                    String remaining = header.getOrDefault("remaining", "0");
+                    if (!remaining.equals("0")) {
+                        System.out.println(remaining + " older notifications: type notifications");
+                    }
+                    connection.sendMessage(new Message(
+                            MessageType.NOTIFICATIONS_ACK,
+                            connection.getClientId(),
+                            "ack:" + header.get("ack")));
+                    continue;
+                }
+
+                // Batched online/offline changes of followees
+                if (msg.getType() == MessageType.PRESENCE) {
+                    Map<String, String> m = Util.parsePayload(msg.getPayload());
+                    List<String> up = splitNames(m.get("online"));
+                    List<String> down = splitNames(m.get("offline"));
+                    connection.updatePresence(up, down);
+                    if (!up.isEmpty()) System.out.println("Online now: " + String.join(", ", up));
+                    if (!down.isEmpty()) System.out.println("Went offline: " + String.join(", ", down));
+                    continue;
+                }
 
                 // Incoming follow request
                 if (msg.getType() == MessageType.FOLLOW_REQUEST) {
@@ -152,23 +188,47 @@ public class ServerListener implements Runnable {
                     String p = msg.getPayload();
                     if (p.startsWith("Search: found photo ")) {
                         System.out.println(p);
+                        boolean morePage = connection.consumeSearchMorePending();
                         String[] parts = p.split(" at: ");
                         String raw = parts[0].substring("Search: found photo ".length());
                         int idx = raw.indexOf(" (");
                         String file = (idx < 0 ? raw : raw.substring(0, idx));
-                        lastOwners.clear();
-                        for (String tok : parts[1].split(",")) {
+
+                        // Owners arrive ranked best first, with an optional next-page cursor
+                        String listing = parts[1];
+                        int nextIdx = listing.indexOf(" next:");
+                        connection.setSearchCursor(nextIdx < 0 ? null
+                                : listing.substring(nextIdx + " next:".length()).trim());
+                        if (nextIdx >= 0) {
+                            listing = listing.substring(0, nextIdx);
+                            System.out.println("More owners available: type search_more");
+                        }
+                        if (!morePage) {
+                            lastOwners.clear();
+                        }
+                        String bestOnline = null;
+                        for (String tok : listing.split(",")) {
                             String nm = tok.substring(tok.indexOf('(') + 1, tok.indexOf(')'));
                             lastOwners.add(nm);
+                            if (bestOnline == null
+                                    && (tok.endsWith("[online]") || connection.isFolloweeOnline(nm))) {
+                                bestOnline = nm;
+                            }
+                        }
+                        if (morePage) {
+                            continue;
                         }
                         lastDownloadFileName = file;
                         lastLang = connection.getLanguagePref();
-                        String owner = lastOwners.get(
-                                (int) (Math.random() * lastOwners.size()));
+                        String owner = bestOnline != null ? bestOnline : lastOwners.get(0);
                         System.out.println("Initiating ASK to " + owner);
                         sendAsk(owner, file, lastLang);
                         continue;
                     }
+                    if (p.startsWith("Search: no more owners")) {
+                        connection.consumeSearchMorePending();
+                        connection.setSearchCursor(null);
+                    }
                     if (p.startsWith("Caption: ")) {
                         saveCaptionFile(p.substring("Caption: ".length()));
                         continue;
@@ -238,6 +298,19 @@ public class ServerListener implements Runnable {
         System.out.print("Retry download? (yes/no): ");
     }
 
+    /**
+     * Splits a comma-separated list of usernames from a PRESENCE payload.
+     *
+     * @param list the list, possibly empty or null
+     * @return the usernames
+     */
+    private static List<String> splitNames(String list) {
+        List<String> names = new ArrayList<>();
+        if (list == null || list.isEmpty()) return names;
+        for (String n : list.split(",")) names.add(n);
+        return names;
+    }
+
     /**
      * Sends an ASK message to the specified owner for a file in a given language.
      *
@@ -40,4 +40,107 @@ public class Constants {
      * Identifier for this project group; used in directory and file naming.
      */
     public static final String GROUP_ID = "34";
+
+    /**
+     * Directory holding server-private state (index snapshots, logs) that is
+     * not mirrored to clients.
+     */
+    public static final String SERVER_DATA_DIR = "ServerData";
+
+    /**
+     * Maximum number of (user, query, lang) search results kept in the search cache.
+     */
+    public static final int SEARCH_CACHE_MAX_ENTRIES = 1024;
+
+    /**
+     * Time-to-live in milliseconds of a cached search result.
+     */
+    public static final int SEARCH_CACHE_TTL_MS = 60_000;
+
+    /**
+     * Approximate heap budget in bytes of the rendered profile view cache; the
+     * least recently viewed profiles are evicted beyond it.
+     */
+    public static final long PROFILE_VIEW_CACHE_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * Number of ranked owners returned per page of SEARCH results.
+     */
+    public static final int SEARCH_PAGE_SIZE = 5;
+
+    /**
+     * Number of records after which the social graph WAL is compacted into a snapshot.
+     */
+    public static final int GRAPH_WAL_COMPACT_RECORDS = 50_000;
+
+    /**
+     * Delay in milliseconds before the graph WAL retries a batch whose write failed.
+     */
+    public static final int GRAPH_WAL_RETRY_MS = 1_000;
+
+    /**
+     * Maximum number of accounts suggested by one RECOMMEND request.
+     */
+    public static final int RECOMMEND_LIMIT = 10;
+
+    /**
+     * Time-to-live in milliseconds of a user's cached recommendation counts.
+     */
+    public static final int RECOMMEND_CACHE_TTL_MS = 300_000;
+
+    /**
+     * Follower count from which an account's uploads are published to an outbox
+     * and pulled by followers instead of pushed to each of them. Set with
+     * -Dfanout.pullThreshold=N.
+     */
+    public static final int FANOUT_PULL_THRESHOLD = Integer.getInteger("fanout.pullThreshold", 1_000);
+
+    /**
+     * Number of slots in the domain event ring buffer (a power of two); when the
+     * slowest consumer is this far behind, publishers wait.
+     */
+    public static final int EVENT_BUS_RING_SIZE = 1024;
+
+    /**
+     * Size in bytes from which a user's notification log starts a new segment file.
+     */
+    public static final int NOTIFICATION_SEGMENT_BYTES = 64 * 1024;
+
+    /**
+     * Interval in milliseconds between passes deleting delivered notification segments.
+     */
+    public static final int NOTIFICATION_COMPACT_INTERVAL_MS = 30_000;
+
+    /**
+     * Maximum number of stored notifications (digests count once) kept per user;
+     * beyond it the lowest-priority oldest ones are evicted.
+     */
+    public static final int NOTIFICATION_USER_CAP = 200;
+
+    /**
+     * Time-to-live in milliseconds of a stored notification (seven days).
+     */
+    public static final long NOTIFICATION_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Number of stored notifications sent per replay page.
+     */
+    public static final int NOTIFICATION_PAGE_SIZE = 20;
+
+    /**
+     * Interval in milliseconds at which accumulated followee online/offline
+     * changes are pushed to each watching client.
+     */
+    public static final int PRESENCE_BATCH_MS = 500;
+
+    /**
+     * Tick length in milliseconds of the timer wheel expiring profile lock leases.
+     */
+    public static final int LEASE_TICK_MS = 100;
+
+    /**
+     * Number of slots in the lock lease timer wheel; leases due further out
+     * than one turn (slots × tick) wait extra rounds in their slot.
+     */
+    public static final int LEASE_WHEEL_SLOTS = 512;
 }
@@ -28,7 +28,15 @@ public class Message implements Serializable {
         // Phase B gated download flow
         ASK, PERMIT, DENY,
         // Phase B comment approval handshake
-        ASK_COMMENT, APPROVE_COMMENT, DENY_COMMENT
+        ASK_COMMENT, APPROVE_COMMENT, DENY_COMMENT,
+        // Caption full-text search
+        SEARCH_CAPTION,
+        // Follow suggestions
+        RECOMMEND, RECOMMEND_RESPONSE,
+        // Paged notification replay
+        NOTIFICATIONS, NOTIFICATIONS_PAGE, NOTIFICATIONS_ACK,
+        // Batched online/offline changes of followees
+        PRESENCE
     }
 
     /** Type of this message. */
@@ -1,6 +1,8 @@
 package common;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
@@ -26,6 +28,16 @@ public class Util {
         return LocalDateTime.now().format(formatter);
     }
 
+    /**
+     * Formats an epoch-millisecond time as a local timestamp.
+     *
+     * @param millis the time in milliseconds since the epoch
+     * @return the timestamp in "yyyy-MM-dd HH:mm:ss" format
+     */
+    public static String getTimestamp(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).format(formatter);
+    }
+
     /**
      * Parses a payload of the form "key1:val1|key2:val2|…" into a map.
      */
@@ -0,0 +1,152 @@
+package server;
+
+import common.Constants;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton in-memory record of which caption languages exist for each photo copy.
+ * Holds a per-photo, per-owner language bitmask so that search can filter owners
+ * by caption language without probing the filesystem.
+ */
+public class CaptionAvailability {
+    /**
+     * Singleton instance of CaptionAvailability, created with the class since the
+     * first calls come concurrently from the caption index build workers.
+     */
+    private static final CaptionAvailability INSTANCE = new CaptionAvailability();
+
+    /** Bit set when an English caption file exists. */
+    public static final int EN = 1;
+    /** Bit set when a Greek caption file exists. */
+    public static final int GR = 1 << 1;
+
+    /**
+     * Maps a photo file name to a map of owner ID → bitmask of available caption languages.
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>> captions =
+            new ConcurrentHashMap<>();
+
+    /** Private constructor for singleton pattern. */
+    private CaptionAvailability() { }
+
+    /**
+     * Returns the singleton instance.
+     *
+     * @return the CaptionAvailability instance
+     */
+    public static CaptionAvailability getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Maps a language code to its bit.
+     *
+     * @param lang the language code ("en" or "gr")
+     * @return the language bit, or 0 for an unknown language
+     */
+    public static int langBit(String lang) {
+        if ("en".equals(lang)) return EN;
+        if ("gr".equals(lang)) return GR;
+        return 0;
+    }
+
+    /**
+     * Records that the owner's copy of the photo has a caption in the given language.
+     *
+     * @param fileName the photo file name
+     * @param ownerId  the numeric ID of the owner
+     * @param lang     the caption language ("en" or "gr")
+     */
+    public void markAvailable(String fileName, String ownerId, String lang) {
+        int bit = langBit(lang);
+        if (bit == 0) return;
+        captions.computeIfAbsent(fileName, k -> new ConcurrentHashMap<>())
+                .merge(ownerId, bit, (a, b) -> a | b);
+    }
+
+    /**
+     * Records that the owner's caption in the given language has been removed.
+     *
+     * @param fileName the photo file name
+     * @param ownerId  the numeric ID of the owner
+     * @param lang     the caption language ("en" or "gr")
+     */
+    public void markUnavailable(String fileName, String ownerId, String lang) {
+        int bit = langBit(lang);
+        ConcurrentHashMap<String, Integer> owners = captions.get(fileName);
+        if (bit == 0 || owners == null) return;
+        owners.computeIfPresent(ownerId, (k, mask) -> (mask & ~bit) == 0 ? null : mask & ~bit);
+    }
+
+    /**
+     * Updates availability from a filesystem event on a caption file inside a
+     * per-client directory (e.g. ServerFiles/34client3/beach.jpg_gr.txt).
+     * Paths that are not caption files are ignored.
+     *
+     * @param path    the path of the created, modified or deleted file
+     * @param present true if the file now exists; false if it was deleted
+     */
+    public void recordFileEvent(Path path, boolean present) {
+        Path parent = path.getParent();
+        String prefix = Constants.GROUP_ID + "client";
+        if (parent == null || !parent.getFileName().toString().startsWith(prefix)) return;
+        String name = path.getFileName().toString();
+        String lang;
+        if (name.endsWith("_en.txt")) {
+            lang = "en";
+        } else if (name.endsWith("_gr.txt")) {
+            lang = "gr";
+        } else {
+            return;
+        }
+        String ownerId  = parent.getFileName().toString().substring(prefix.length());
+        String fileName = name.substring(0, name.length() - "_en.txt".length());
+        if (present) {
+            markAvailable(fileName, ownerId, lang);
+        } else {
+            markUnavailable(fileName, ownerId, lang);
+        }
+        SearchCache.getInstance().invalidateFile(fileName);
+    }
+
+    /**
+     * Checks whether the owner's copy of the photo has a caption in the given language.
+     *
+     * @param fileName the photo file name
+     * @param ownerId  the numeric ID of the owner
+     * @param lang     the caption language ("en" or "gr")
+     * @return true if the caption is available; false otherwise
+     */
+    public boolean hasCaption(String fileName, String ownerId, String lang) {
+        ConcurrentHashMap<String, Integer> owners = captions.get(fileName);
+        if (owners == null) return false;
+        Integer mask = owners.get(ownerId);
+        return mask != null && (mask & langBit(lang)) != 0;
+    }
+
+    /**
+     * Returns the owners whose copy of the photo has a caption in the given language.
+     *
+     * @param fileName the photo file name
+     * @param lang     the caption language ("en" or "gr")
+     * @return a new Set of owner IDs; empty if none
+     */
+    public Set<String> ownersWithCaption(String fileName, String lang) {
+        ConcurrentHashMap<String, Integer> owners = captions.get(fileName);
+        int bit = langBit(lang);
+        if (owners == null || bit == 0) return Collections.emptySet();
+        Set<String> result = new HashSet<>();
+        for (Map.Entry<String, Integer> e : owners.entrySet()) {
+            if ((e.getValue() & bit) != 0) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,304 @@
+package server;
+
+import common.Constants;
+import common.Util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Singleton full-text index over photo captions in both supported languages.
+ * Caption text is normalized per language (accent, final-sigma and case folding
+ * for Greek, light suffix stemming for English) and each term maps to the
+ * "ownerId:fileName" postings whose caption contains it.
+ */
+public class CaptionIndex {
+    /** Singleton instance of CaptionIndex. */
+    private static CaptionIndex instance = null;
+
+    /** Suffix of English caption files stored next to each photo. */
+    private static final String EN_SUFFIX = "_en.txt";
+    /** Suffix of Greek caption files stored next to each photo. */
+    private static final String GR_SUFFIX = "_gr.txt";
+
+    /** Locale used for Greek case folding. */
+    private static final Locale GREEK = new Locale("el");
+
+    /**
+     * Maps a language code to its inverted index of term → postings,
+     * where each posting is "ownerId:fileName".
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Set<String>>> postings =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Maps "lang|ownerId:fileName" to the terms currently indexed for that caption,
+     * so re-uploading a caption replaces its old terms instead of accumulating them.
+     */
+    private final ConcurrentHashMap<String, Set<String>> captionTerms = new ConcurrentHashMap<>();
+
+    /** Private constructor for singleton pattern. */
+    private CaptionIndex() { }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the CaptionIndex instance
+     */
+    public static CaptionIndex getInstance() {
+        if (instance == null) {
+            instance = new CaptionIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Indexes (or re-indexes) the caption of one photo copy in one language.
+     * An empty caption simply removes any previously indexed terms.
+     *
+     * @param ownerId  the numeric ID of the client holding the photo
+     * @param fileName the photo file name
+     * @param lang     the caption language ("en" or "gr")
+     * @param caption  the raw caption text
+     */
+    public void indexCaption(String ownerId, String fileName, String lang, String caption) {
+        String posting = ownerId + ":" + fileName;
+        String docKey  = lang + "|" + posting;
+        Set<String> terms = new HashSet<>(normalize(lang, caption));
+        ConcurrentHashMap<String, Set<String>> index =
+                postings.computeIfAbsent(lang, k -> new ConcurrentHashMap<>());
+
+        synchronized (captionTerms) {
+            Set<String> old = captionTerms.remove(docKey);
+            if (old != null) {
+                for (String term : old) {
+                    Set<String> docs = index.get(term);
+                    if (docs != null) {
+                        docs.remove(posting);
+                        if (docs.isEmpty()) index.remove(term, docs);
+                    }
+                }
+            }
+            for (String term : terms) {
+                index.computeIfAbsent(term, k -> ConcurrentHashMap.newKeySet()).add(posting);
+            }
+            if (!terms.isEmpty()) {
+                captionTerms.put(docKey, terms);
+            }
+        }
+    }
+
+    /**
+     * Finds the captions in the given language containing every term of the query.
+     *
+     * @param lang  the caption language to search ("en" or "gr")
+     * @param query the free-text query
+     * @return a map from photo file name to the IDs of owners whose caption matches;
+     *         empty if nothing matches
+     */
+    public Map<String, Set<String>> search(String lang, String query) {
+        Map<String, Set<String>> result = new LinkedHashMap<>();
+        ConcurrentHashMap<String, Set<String>> index = postings.get(lang);
+        List<String> terms = normalize(lang, query);
+        if (index == null || terms.isEmpty()) {
+            return result;
+        }
+
+        // Intersect starting from the rarest term
+        List<Set<String>> lists = new ArrayList<>();
+        for (String term : new LinkedHashSet<>(terms)) {
+            Set<String> docs = index.get(term);
+            if (docs == null) return result;
+            lists.add(docs);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+        Set<String> matches = new HashSet<>(lists.get(0));
+        for (int i = 1; i < lists.size() && !matches.isEmpty(); i++) {
+            matches.retainAll(lists.get(i));
+        }
+
+        for (String posting : matches) {
+            int idx = posting.indexOf(':');
+            String ownerId  = posting.substring(0, idx);
+            String fileName = posting.substring(idx + 1);
+            result.computeIfAbsent(fileName, k -> new LinkedHashSet<>()).add(ownerId);
+        }
+        return result;
+    }
+
+    /**
+     * Bulk-builds the index from every caption file under the server root,
+     * scanning the per-client directories in parallel worker threads.
+     * Also seeds CaptionAvailability, since every caption file is visited here.
+     *
+     * @param rootDir the server files root (e.g. "ServerFiles")
+     */
+    public void buildFromDisk(String rootDir) {
+        Path root = Paths.get(rootDir);
+        if (!Files.isDirectory(root)) {
+            System.out.println(Util.getTimestamp()
+                    + " CaptionIndex: " + rootDir + " not found, starting with an empty index.");
+            return;
+        }
+
+        List<Path> clientDirs = new ArrayList<>();
+        String prefix = Constants.GROUP_ID + "client";
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(root)) {
+            for (Path d : ds) {
+                if (Files.isDirectory(d) && d.getFileName().toString().startsWith(prefix)) {
+                    clientDirs.add(d);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " CaptionIndex: Error listing " + rootDir + ": " + e.getMessage());
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        AtomicInteger indexed = new AtomicInteger();
+        int workers = Math.max(1, Math.min(clientDirs.size(),
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Path dir : clientDirs) {
+                futures.add(pool.submit(() -> indexDirectory(dir, prefix, indexed)));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (Exception e) {
+                    System.out.println(Util.getTimestamp()
+                            + " CaptionIndex: Worker failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println(Util.getTimestamp() + " CaptionIndex: Indexed " + indexed.get()
+                + " captions from " + clientDirs.size() + " directories using " + workers
+                + " workers in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Indexes every caption file in one client directory.
+     *
+     * @param dir     the client directory
+     * @param prefix  the "&lt;group&gt;client" directory-name prefix
+     * @param indexed counter of captions indexed so far
+     */
+    private void indexDirectory(Path dir, String prefix, AtomicInteger indexed) {
+        String ownerId = dir.getFileName().toString().substring(prefix.length());
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path f : ds) {
+                String name = f.getFileName().toString();
+                String lang;
+                if (name.endsWith(EN_SUFFIX)) {
+                    lang = "en";
+                } else if (name.endsWith(GR_SUFFIX)) {
+                    lang = "gr";
+                } else {
+                    continue;
+                }
+                String fileName = name.substring(0, name.length() - EN_SUFFIX.length());
+                String caption  = new String(Files.readAllBytes(f));
+                indexCaption(ownerId, fileName, lang, caption);
+                CaptionAvailability.getInstance().markAvailable(fileName, ownerId, lang);
+                indexed.incrementAndGet();
+            }
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " CaptionIndex: Error reading " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Splits text into normalized index terms for the given language.
+     *
+     * @param lang the language code ("en" or "gr")
+     * @param text the raw text
+     * @return the list of normalized terms, in text order
+     */
+    static List<String> normalize(String lang, String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        String folded = foldAccents(text);
+        folded = "gr".equals(lang)
+                ? folded.toLowerCase(GREEK).replace('ς', 'σ')
+                : folded.toLowerCase(Locale.ROOT);
+        for (String token : folded.split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty()) continue;
+            terms.add("en".equals(lang) ? stemEnglish(token) : token);
+        }
+        return terms;
+    }
+
+    /**
+     * Strips diacritics (Greek tonos/dialytika, Latin accents) from the text.
+     *
+     * @param text the raw text
+     * @return the text without combining marks
+     */
+    private static String foldAccents(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return decomposed.replaceAll("\\p{M}+", "");
+    }
+
+    /**
+     * Applies a light suffix-stripping stemmer to a lowercase English word,
+     * so that e.g. "sunsets", "sailing" and "sailed" match "sunset" and "sail".
+     *
+     * @param word the lowercase word
+     * @return the stemmed word
+     */
+    static String stemEnglish(String word) {
+        int n = word.length();
+        if (n > 4 && word.endsWith("ies")) {
+            return word.substring(0, n - 3) + "y";
+        }
+        if (n > 4 && word.endsWith("sses")) {
+            return word.substring(0, n - 2);
+        }
+        if (n > 5 && word.endsWith("ing")) {
+            return undouble(word.substring(0, n - 3));
+        }
+        if (n > 4 && word.endsWith("ed")) {
+            return undouble(word.substring(0, n - 2));
+        }
+        if (n > 4 && word.endsWith("ly")) {
+            return word.substring(0, n - 2);
+        }
+        if (n > 3 && word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us")) {
+            return word.substring(0, n - 1);
+        }
+        return word;
+    }
+
+    /**
+     * Collapses a trailing doubled consonant left by suffix removal ("swimm" → "swim").
+     *
+     * @param stem the stem after suffix removal
+     * @return the stem with a doubled final consonant collapsed
+     */
+    private static String undouble(String stem) {
+        int n = stem.length();
+        if (n > 2 && stem.charAt(n - 1) == stem.charAt(n - 2)
+                && "aeiouls".indexOf(stem.charAt(n - 1)) < 0) {
+            return stem.substring(0, n - 1);
+        }
+        return stem;
+    }
+}
@@ -5,7 +5,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import common.Message;
 import common.Message.MessageType;
@@ -27,6 +29,9 @@ public class ClientHandler implements Runnable {
     /** Stream for sending messages to the client. */
     private ObjectOutputStream output;
 
+    /** View of output handed to request handlers; each write holds output's monitor. */
+    private ObjectOutputStream responses;
+
     private String clientId;     // Numeric ID assigned on signup/login
     private String username;     // Username of this client
 
@@ -40,6 +45,29 @@ public class ClientHandler implements Runnable {
      */
     public static ConcurrentHashMap<String, String> clientAddressMap = new ConcurrentHashMap<>();
 
+    /**
+     * A message waiting on the outbound queue and the future acknowledging it.
+     */
+    private static class Outbound {
+        /** The message to write. */
+        final Message msg;
+        /** Completes with true once written and flushed, false if it never will be. */
+        final CompletableFuture<Boolean> ack = new CompletableFuture<>();
+
+        Outbound(Message msg) {
+            this.msg = msg;
+        }
+    }
+
+    /** Messages sent from other threads, written in order by the writer thread. */
+    private final LinkedBlockingQueue<Outbound> outbound = new LinkedBlockingQueue<>();
+
+    /** Thread draining the outbound queue; started once the streams exist. */
+    private Thread writer;
+
+    /** Set when the connection is closing; queued messages are then failed. */
+    private volatile boolean closed = false;
+
     /* ───────── Phase-B: guard against concurrent pending requests ───────── */
     private static final ConcurrentHashMap<String, Boolean> pendingDownload = new ConcurrentHashMap<>();
     private static final ConcurrentHashMap<String, Boolean> pendingComment  = new ConcurrentHashMap<>();
@@ -62,7 +90,11 @@ public class ClientHandler implements Runnable {
     public void run() {
         try {
             output = new ObjectOutputStream(clientSocket.getOutputStream());
+            responses = new SerializedOutput(output);
             input  = new ObjectInputStream(clientSocket.getInputStream());
+            writer = new Thread(this::drainOutbound, "ClientWriter-" + clientSocket.getPort());
+            writer.setDaemon(true);
+            writer.start();
             System.out.println("ClientHandler: Streams established for " + clientSocket.getInetAddress());
 
             Message msg;
@@ -73,9 +105,16 @@ public class ClientHandler implements Runnable {
         } catch (IOException | ClassNotFoundException e) {
             System.out.println("ClientHandler: Error or disconnection: " + e.getMessage());
         } finally {
+            // Stop the writer; anything still queued is failed back to its sender
+            closed = true;
+            if (writer != null) writer.interrupt();
+            failOutbound();
+
             // Clean up registry and pending-lock entries on disconnect
             if (clientId != null) {
-                activeClients.remove(clientId);
+                if (activeClients.remove(clientId, this)) {
+                    PresenceService.getInstance().disconnected(clientId);
+                }
                 clientAddressMap.remove(clientId);
                 pendingDownload.remove(clientId);
                 pendingComment.remove(clientId);
@@ -128,6 +167,7 @@ public class ClientHandler implements Runnable {
                                 clientId,
                                 "Welcome " + username + " (ClientID: " + clientId + ")"
                         ));
+                        PresenceService.getInstance().connected(clientId);
                     } else {
                         sendMessage(new Message(MessageType.AUTH_FAILURE, "Server",
                                 "Signup failed: Username already exists."));
@@ -161,11 +201,14 @@ public class ClientHandler implements Runnable {
                                 "Welcome back " + username + " (ClientID: " + clientId + ")"
                         ));
 
-                        // Replay any pending notifications
-                        for (String notification : NotificationManager.getInstance().getNotifications(clientId)) {
-                            sendMessage(new Message(MessageType.DIAGNOSTIC, "Server",
-                                    "Notification: " + notification));
-                        }
+                        // Replay the newest page of stored notifications; older pages on request
+                        sendNotificationPage(NotificationManager.getInstance().firstPage(clientId), false);
+
+                        // Merge posts of pull-mode accounts into the Others file
+                        FanoutEngine.getInstance().mergeFeed(clientId);
+
+                        // Online followees to this client, "online" to its connected followers
+                        PresenceService.getInstance().connected(clientId);
                     } else {
                         sendMessage(new Message(MessageType.AUTH_FAILURE, "Server",
                                 "Login failed: Incorrect credentials."));
@@ -229,15 +272,15 @@ public class ClientHandler implements Runnable {
             }
 
             case UPLOAD:
-                FileManager.handleUpload(msg, clientId, output);
+                FileManager.handleUpload(msg, clientId, responses);
                 break;
 
             case DOWNLOAD:
-                FileManager.handleDownload(msg, clientId, clientSocket, input, output);
+                FileManager.handleDownload(msg, clientId, clientSocket, input, responses);
                 break;
 
             case ACCESS_PROFILE:
-                ProfileManager.handleAccessProfile(msg, clientId, output);
+                ProfileManager.handleAccessProfile(msg, clientId, responses);
                 break;
 
             case FOLLOW:
@@ -249,15 +292,33 @@ public class ClientHandler implements Runnable {
                 break;
 
             case LIST_FOLLOWERS:
-                SocialGraphManager.getInstance().handleListFollowers(msg, output);
+                SocialGraphManager.getInstance().handleListFollowers(msg, responses);
                 break;
 
             case LIST_FOLLOWING:
-                SocialGraphManager.getInstance().handleListFollowing(msg, output);
+                SocialGraphManager.getInstance().handleListFollowing(msg, responses);
                 break;
 
             case SEARCH:
-                FileManager.handleSearch(msg, clientId, output);
+                FileManager.handleSearch(msg, clientId, responses);
+                break;
+
+            case SEARCH_CAPTION:
+                FileManager.handleCaptionSearch(msg, clientId, responses);
+                break;
+
+            case RECOMMEND:
+                SocialGraphManager.getInstance().handleRecommend(msg, responses);
+                break;
+
+            case NOTIFICATIONS:
+                sendNotificationPage(NotificationManager.getInstance().nextPage(clientId), true);
+                break;
+
+            case NOTIFICATIONS_ACK:
+                // Payload format: "ack:<epoch>-<from>-<to>"
+                NotificationManager.getInstance().acknowledge(clientId,
+                        Util.parsePayload(msg.getPayload()).getOrDefault("ack", ""));
                 break;
 
             case REPOST:
@@ -269,7 +330,7 @@ public class ClientHandler implements Runnable {
                     String targetNumericId = AuthenticationManager.getClientIdByUsername(targetUsername);
                     if (targetNumericId != null) {
                         // Queue the repost notification
-                        ProfileManager.handleRepost(msg, clientId, output);
+                        ProfileManager.handleRepost(msg, clientId, responses);
                     } else {
                         sendMessage(new Message(MessageType.DIAGNOSTIC, "Server",
                                 "Repost failed: User '" + targetUsername + "' not found."));
@@ -347,14 +408,130 @@ public class ClientHandler implements Runnable {
      * @param msg the Message to send
      */
     private void sendMessage(Message msg) {
+        writeMessage(msg);
+    }
+
+    /**
+     * Object stream that forwards each written object and flush to the client's
+     * stream while holding that stream's monitor, the lock writeMessage takes, so
+     * responses written by request handlers never interleave with messages from
+     * the writer thread. Only writeObject, flush and close are supported.
+     */
+    private static final class SerializedOutput extends ObjectOutputStream {
+        /** The client's stream. */
+        private final ObjectOutputStream out;
+
+        SerializedOutput(ObjectOutputStream out) throws IOException {
+            super();
+            this.out = out;
+        }
+
+        @Override
+        protected void writeObjectOverride(Object obj) throws IOException {
+            synchronized (out) {
+                out.writeObject(obj);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes and flushes a Message, serialized with other writers of the stream.
+     *
+     * @param msg the Message to write
+     * @return true if the message was written and flushed
+     */
+    private boolean writeMessage(Message msg) {
         try {
-            output.writeObject(msg);
-            output.flush();
+            synchronized (output) {
+                output.writeObject(msg);
+                output.flush();
+            }
             System.out.println("ClientHandler: Sent message: " + msg);
+            return true;
         } catch (IOException e) {
             System.out.println("ClientHandler: Error sending message to client "
                     + clientId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Queues a Message for the writer thread and returns its acknowledgement.
+     * The future completes with true once the message is flushed to the socket,
+     * or with false if the connection closed or the write failed.
+     *
+     * @param msg the Message to send
+     * @return the delivery acknowledgement
+     */
+    public CompletableFuture<Boolean> enqueue(Message msg) {
+        Outbound o = new Outbound(msg);
+        if (closed) {
+            o.ack.complete(false);
+            return o.ack;
+        }
+        outbound.add(o);
+        // The writer may have exited between the check and the add
+        if (closed && outbound.remove(o)) o.ack.complete(false);
+        return o.ack;
+    }
+
+    /**
+     * Writer thread body: writes queued messages in order until the connection
+     * closes or a write fails.
+     */
+    private void drainOutbound() {
+        try {
+            while (!closed) {
+                Outbound o = outbound.take();
+                boolean written = writeMessage(o.msg);
+                o.ack.complete(written);
+                if (!written) break;
+            }
+        } catch (InterruptedException e) {
+            // connection closing
+        }
+        closed = true;
+        failOutbound();
+    }
+
+    /**
+     * Completes every message still queued as not delivered.
+     */
+    private void failOutbound() {
+        Outbound o;
+        while ((o = outbound.poll()) != null) o.ack.complete(false);
+    }
+
+    /**
+     * Sends one page of stored notifications as a NOTIFICATIONS_PAGE message:
+     * a header line "remaining:&lt;n&gt;|ack:&lt;token&gt;" followed by one line per
+     * notification, newest first. The client acknowledges the token once shown.
+     *
+     * @param page        the page, or null if nothing is stored
+     * @param sayIfEmpty  whether to tell the client there is nothing left
+     */
+    private void sendNotificationPage(NotificationManager.Page page, boolean sayIfEmpty) {
+        if (page == null) {
+            if (sayIfEmpty) {
+                sendMessage(new Message(MessageType.DIAGNOSTIC, "Server", "No more notifications."));
+            }
+            return;
         }
+        StringBuilder sb = new StringBuilder("remaining:" + page.remaining + "|ack:" + page.ackToken());
+        for (String n : page.notifications) sb.append('\n').append(n);
+        sendMessage(new Message(MessageType.NOTIFICATIONS_PAGE, "Server", sb.toString()));
     }
 
     /**
@@ -363,16 +540,17 @@ public class ClientHandler implements Runnable {
      * @return the output stream to send Message objects to the client
      */
     public ObjectOutputStream getOutputStream() {
-        return output;
+        return responses;
     }
 
     /**
-     * Sends a Message to the client asynchronously from outside this class.
+     * Sends a Message to the client asynchronously from outside this class,
+     * through the outbound queue.
      *
      * @param msg the Message to send
      */
     public void sendExternalMessage(Message msg) {
-        sendMessage(msg);
+        enqueue(msg);
     }
 
     private void sendExternalTo(String targetId, Message m) {
@@ -0,0 +1,530 @@
+package server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compact follower graph over primitive int user IDs (the numeric client IDs).
+ *<p>
+ * The bulk of the graph is stored twice in CSR form: followers per user and
+ * followees per user, each as the sorted IDs of the users that have a row, an
+ * offsets array and one sorted int[] of neighbours. The arrays are sized by the
+ * users with edges, not by the highest user ID; finding a row and membership are
+ * binary searches and traversal is a linear scan.
+ * Live follows and unfollows go to a small overlay of rewritten rows that is
+ * merged back into fresh CSR arrays once enough mutations have accumulated.
+ *<p>
+ * Thread safety: every adjacency row is immutable once published. Writers take
+ * striped locks for the two users of an edge and publish copy-on-write rows, so
+ * readers never block and always iterate a stable snapshot of a row, even while
+ * writers keep mutating the graph. A merge copies the overlay under all stripes,
+ * builds the new CSR arrays on a background thread without any stripe held, then
+ * takes the stripes again only to swap them in and drop the overlay rows that
+ * did not change meanwhile; writers pause for the copies, not for the rebuild.
+ */
+public class CompactGraph {
+
+    /** Number of mutations after which the overlay is merged into the CSR arrays. */
+    static final int MERGE_EVERY_MUTATIONS = 4096;
+
+    /** Number of lock stripes guarding writes; a user maps to stripe (id mod STRIPES). */
+    private static final int STRIPES = 64;
+
+    /** Empty adjacency row. */
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * Receives every successful mutation, in the order mutations of the same
+     * edge were applied.
+     */
+    public interface MutationLog {
+        /**
+         * Called while the stripes of both users are held, so it must not block.
+         *
+         * @param added    true for an added edge, false for a removed one
+         * @param follower the following user
+         * @param followee the followed user
+         */
+        void edgeChanged(boolean added, int follower, int followee);
+    }
+
+    /**
+     * One direction of the graph in compressed sparse row form: ids holds the
+     * users with a non-empty row, sorted, and the neighbours of ids[i] are
+     * targets[offsets[i] .. offsets[i+1]), sorted.
+     */
+    static class Csr {
+        final int[] ids;
+        final int[] offsets;
+        final int[] targets;
+
+        Csr(int[] ids, int[] offsets, int[] targets) {
+            this.ids = ids;
+            this.offsets = offsets;
+            this.targets = targets;
+        }
+
+        /** @return one more than the highest user ID with a row, or 0 */
+        int rows() {
+            return ids.length == 0 ? 0 : ids[ids.length - 1] + 1;
+        }
+
+        /** @return the index of u's row, or a negative value if u has none */
+        private int index(int u) {
+            return Arrays.binarySearch(ids, u);
+        }
+
+        /** @return a copy of row u, or an empty row if u has none */
+        int[] row(int u) {
+            int i = index(u);
+            if (i < 0) return EMPTY;
+            return Arrays.copyOfRange(targets, offsets[i], offsets[i + 1]);
+        }
+
+        /** @return true if v is in row u */
+        boolean contains(int u, int v) {
+            int i = index(u);
+            if (i < 0) return false;
+            return Arrays.binarySearch(targets, offsets[i], offsets[i + 1], v) >= 0;
+        }
+    }
+
+    /**
+     * Immutable pair of CSR directions, replaced as a whole on merge.
+     */
+    private static class Base {
+        /** Followers of each user (row = followee). */
+        final Csr followers;
+        /** Followees of each user (row = follower). */
+        final Csr following;
+
+        Base(Csr followers, Csr following) {
+            this.followers = followers;
+            this.following = following;
+        }
+    }
+
+    /** Current CSR arrays; published by merge. */
+    private volatile Base base;
+
+    /** Overlay rows replacing followers rows changed since the last merge. */
+    private final Map<Integer, int[]> followersDelta = new ConcurrentHashMap<>();
+    /** Overlay rows replacing following rows changed since the last merge. */
+    private final Map<Integer, int[]> followingDelta = new ConcurrentHashMap<>();
+
+    /** Write locks, one per stripe of user IDs. */
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    /** Mutations applied since the last merge copied the overlay. */
+    private final AtomicInteger mutationsSinceMerge = new AtomicInteger();
+
+    /** Set while a background merge is scheduled or running. */
+    private final AtomicBoolean merging = new AtomicBoolean();
+
+    /** Serializes merges, so two never rebuild from the same overlay. */
+    private final Object mergeMonitor = new Object();
+
+    /** Total number of edges. */
+    private final AtomicLong edgeCount;
+
+    /** Graph version, incremented by every successful mutation. */
+    private final AtomicLong version = new AtomicLong();
+
+    /** Log notified of each mutation, or null. */
+    private volatile MutationLog mutationLog;
+
+    /**
+     * Constructs a graph from prebuilt CSR arrays.
+     *
+     * @param followers followers per user
+     * @param following followees per user
+     * @param edgeCount number of edges
+     */
+    CompactGraph(Csr followers, Csr following, long edgeCount) {
+        this.base = new Base(followers, following);
+        this.edgeCount = new AtomicLong(edgeCount);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantLock();
+    }
+
+    /**
+     * Constructs an empty graph.
+     */
+    public CompactGraph() {
+        this(new Csr(EMPTY, new int[1], EMPTY), new Csr(EMPTY, new int[1], EMPTY), 0);
+    }
+
+    /**
+     * Builds a graph from parallel edge arrays where edge i means
+     * follower[i] follows followee[i]. Duplicate edges are dropped.
+     *
+     * @param followee the followed user of each edge
+     * @param follower the following user of each edge
+     * @param count    the number of edges in the arrays
+     * @return the graph
+     */
+    public static CompactGraph fromEdges(int[] followee, int[] follower, int count) {
+        int maxId = 0;
+        for (int i = 0; i < count; i++) {
+            maxId = Math.max(maxId, Math.max(followee[i], follower[i]));
+        }
+        Csr in  = buildCsr(followee, follower, count, maxId + 1);
+        Csr out = buildCsr(follower, followee, count, maxId + 1);
+        return new CompactGraph(in, out, in.targets.length);
+    }
+
+    /**
+     * Builds one CSR direction with a counting sort on the row array, then sorts
+     * and de-duplicates each row and drops the empty ones. Only the counting
+     * arrays are sized by rows; the CSR is sized by the rows with edges.
+     *
+     * @param rowOf   the row (source) of each edge
+     * @param colOf   the column (target) of each edge
+     * @param count   the number of edges
+     * @param rows    one more than the highest row ID
+     * @return the CSR
+     */
+    static Csr buildCsr(int[] rowOf, int[] colOf, int count, int rows) {
+        int[] offsets = new int[rows + 1];
+        for (int i = 0; i < count; i++) offsets[rowOf[i] + 1]++;
+        for (int r = 0; r < rows; r++) offsets[r + 1] += offsets[r];
+        int[] targets = new int[count];
+        int[] fill = Arrays.copyOf(offsets, rows);
+        for (int i = 0; i < count; i++) targets[fill[rowOf[i]]++] = colOf[i];
+
+        // Sort rows and squeeze out duplicates in place
+        int nonEmpty = 0;
+        for (int r = 0; r < rows; r++) {
+            if (offsets[r + 1] > offsets[r]) nonEmpty++;
+        }
+        int[] ids = new int[nonEmpty];
+        int[] rowOffsets = new int[nonEmpty + 1];
+        int write = 0;
+        int start = 0;
+        int n = 0;
+        for (int r = 0; r < rows; r++) {
+            int end = offsets[r + 1];
+            if (end == start) continue;
+            Arrays.sort(targets, start, end);
+            ids[n] = r;
+            rowOffsets[n++] = write;
+            for (int i = start; i < end; i++) {
+                if (i == start || targets[i] != targets[i - 1]) targets[write++] = targets[i];
+            }
+            start = end;
+        }
+        rowOffsets[nonEmpty] = write;
+        return new Csr(ids, rowOffsets, write == count ? targets : Arrays.copyOf(targets, write));
+    }
+
+    /**
+     * Checks whether follower follows followee.
+     *
+     * @param follower the following user
+     * @param followee the followed user
+     * @return true if the edge exists
+     */
+    public boolean hasEdge(int follower, int followee) {
+        int[] row = followingDelta.get(follower);
+        if (row != null) return Arrays.binarySearch(row, followee) >= 0;
+        return base.following.contains(follower, followee);
+    }
+
+    /**
+     * Returns a snapshot of the sorted followers of a user. The array is never
+     * modified afterwards, so it can be iterated while writers keep changing the graph.
+     *
+     * @param user the user ID
+     * @return a sorted, read-only array of follower IDs
+     */
+    public int[] followersOf(int user) {
+        int[] row = followersDelta.get(user);
+        return row != null ? row : base.followers.row(user);
+    }
+
+    /**
+     * Returns a snapshot of the sorted followees of a user. The array is never
+     * modified afterwards, so it can be iterated while writers keep changing the graph.
+     *
+     * @param user the user ID
+     * @return a sorted, read-only array of followee IDs
+     */
+    public int[] followingOf(int user) {
+        int[] row = followingDelta.get(user);
+        return row != null ? row : base.following.row(user);
+    }
+
+    /**
+     * Adds the edge follower → followee.
+     *
+     * @param follower the following user
+     * @param followee the followed user
+     * @return true if the edge was added; false if it already existed
+     */
+    public boolean addEdge(int follower, int followee) {
+        lockPair(follower, followee);
+        try {
+            Base b = base;
+            int[] out = currentRow(followingDelta, b.following, follower);
+            int pos = Arrays.binarySearch(out, followee);
+            if (pos >= 0) return false;
+            int[] in = currentRow(followersDelta, b.followers, followee);
+            followingDelta.put(follower, insert(out, -pos - 1, followee));
+            followersDelta.put(followee, insert(in, -Arrays.binarySearch(in, follower) - 1, follower));
+            edgeCount.incrementAndGet();
+            version.incrementAndGet();
+            MutationLog log = mutationLog;
+            if (log != null) log.edgeChanged(true, follower, followee);
+        } finally {
+            unlockPair(follower, followee);
+        }
+        afterMutation();
+        return true;
+    }
+
+    /**
+     * Removes the edge follower → followee.
+     *
+     * @param follower the following user
+     * @param followee the followed user
+     * @return true if the edge existed and was removed
+     */
+    public boolean removeEdge(int follower, int followee) {
+        lockPair(follower, followee);
+        try {
+            Base b = base;
+            int[] out = currentRow(followingDelta, b.following, follower);
+            int pos = Arrays.binarySearch(out, followee);
+            if (pos < 0) return false;
+            int[] in = currentRow(followersDelta, b.followers, followee);
+            followingDelta.put(follower, remove(out, pos));
+            followersDelta.put(followee, remove(in, Arrays.binarySearch(in, follower)));
+            edgeCount.decrementAndGet();
+            version.incrementAndGet();
+            MutationLog log = mutationLog;
+            if (log != null) log.edgeChanged(false, follower, followee);
+        } finally {
+            unlockPair(follower, followee);
+        }
+        afterMutation();
+        return true;
+    }
+
+    /**
+     * Returns the number of edges.
+     *
+     * @return the edge count
+     */
+    public long edgeCount() {
+        return edgeCount.get();
+    }
+
+    /**
+     * Returns the graph version, which increases with every successful mutation.
+     *
+     * @return the current version
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Sets the log notified of each subsequent mutation.
+     *
+     * @param log the mutation log, or null to stop logging
+     */
+    public void setMutationLog(MutationLog log) {
+        this.mutationLog = log;
+    }
+
+    /**
+     * Returns one more than the highest user ID that has or had a row, so every
+     * user with edges is below it.
+     *
+     * @return the number of rows
+     */
+    public int rowCount() {
+        int rows = Math.max(base.followers.rows(), base.following.rows());
+        for (int u : followersDelta.keySet()) rows = Math.max(rows, u + 1);
+        for (int u : followingDelta.keySet()) rows = Math.max(rows, u + 1);
+        return rows;
+    }
+
+    /**
+     * Returns the approximate heap footprint of the adjacency arrays in bytes.
+     *
+     * @return bytes held by CSR arrays and overlay rows
+     */
+    public long footprintBytes() {
+        Base b = base;
+        long bytes = 4L * (b.followers.ids.length + b.followers.offsets.length + b.followers.targets.length
+                + b.following.ids.length + b.following.offsets.length + b.following.targets.length);
+        for (int[] row : followersDelta.values()) bytes += 16 + 4L * row.length;
+        for (int[] row : followingDelta.values()) bytes += 16 + 4L * row.length;
+        return bytes;
+    }
+
+    /**
+     * Merges the overlay into fresh CSR arrays. The base and overlay are copied
+     * while every stripe is held, the arrays are rebuilt with no stripe held, and
+     * the stripes are taken again to publish them. Overlay rows still identical to
+     * the copied ones are then dropped; rows rewritten during the rebuild stay in
+     * the overlay, so no write is lost. The new arrays are published before rows
+     * leave the overlay, so a concurrent reader sees identical rows from either.
+     */
+    public void merge() {
+        synchronized (mergeMonitor) {
+            Base b;
+            Map<Integer, int[]> followersCopy, followingCopy;
+            lockAll();
+            try {
+                if (followersDelta.isEmpty() && followingDelta.isEmpty()) return;
+                b = base;
+                followersCopy = new HashMap<>(followersDelta);
+                followingCopy = new HashMap<>(followingDelta);
+                mutationsSinceMerge.set(0);
+            } finally {
+                unlockAll();
+            }
+
+            Base merged = new Base(mergeCsr(b.followers, followersCopy),
+                                   mergeCsr(b.following, followingCopy));
+
+            lockAll();
+            try {
+                base = merged;
+                followersCopy.forEach(followersDelta::remove);
+                followingCopy.forEach(followingDelta::remove);
+            } finally {
+                unlockAll();
+            }
+        }
+    }
+
+    /**
+     * Counts a mutation and, when the overlay has grown large enough, merges it
+     * on a background thread. Called after the writer has released its stripes.
+     */
+    private void afterMutation() {
+        if (mutationsSinceMerge.incrementAndGet() >= MERGE_EVERY_MUTATIONS
+                && merging.compareAndSet(false, true)) {
+            Thread t = new Thread(() -> {
+                try {
+                    merge();
+                } finally {
+                    merging.set(false);
+                }
+            }, "CompactGraph-merge");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Locks every stripe, in order.
+     */
+    private void lockAll() {
+        for (ReentrantLock l : stripes) l.lock();
+    }
+
+    /**
+     * Unlocks every stripe, in reverse order.
+     */
+    private void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) stripes[i].unlock();
+    }
+
+    /**
+     * Locks the stripes of both users, lower stripe first to avoid deadlock.
+     */
+    private void lockPair(int a, int b) {
+        int sa = Math.floorMod(a, STRIPES), sb = Math.floorMod(b, STRIPES);
+        stripes[Math.min(sa, sb)].lock();
+        if (sa != sb) stripes[Math.max(sa, sb)].lock();
+    }
+
+    /**
+     * Unlocks the stripes taken by lockPair.
+     */
+    private void unlockPair(int a, int b) {
+        int sa = Math.floorMod(a, STRIPES), sb = Math.floorMod(b, STRIPES);
+        if (sa != sb) stripes[Math.max(sa, sb)].unlock();
+        stripes[Math.min(sa, sb)].unlock();
+    }
+
+    /**
+     * Returns the current row of u: the overlay row if present, else the CSR row.
+     */
+    private static int[] currentRow(Map<Integer, int[]> delta, Csr base, int u) {
+        int[] row = delta.get(u);
+        return row != null ? row : base.row(u);
+    }
+
+    /**
+     * Rebuilds one CSR direction with overlay rows substituted for base rows,
+     * walking the base row IDs and the sorted overlay IDs together; rows left
+     * empty are dropped.
+     */
+    private static Csr mergeCsr(Csr base, Map<Integer, int[]> delta) {
+        int[] changed = new int[delta.size()];
+        int c = 0;
+        for (int u : delta.keySet()) changed[c++] = u;
+        Arrays.sort(changed);
+
+        int[] ids = new int[base.ids.length + changed.length];
+        int[] offsets = new int[ids.length + 1];
+        int n = 0, i = 0, j = 0;
+        long total = 0;
+        while (i < base.ids.length || j < changed.length) {
+            int u;
+            int degree;
+            if (j == changed.length || (i < base.ids.length && base.ids[i] < changed[j])) {
+                u = base.ids[i];
+                degree = base.offsets[i + 1] - base.offsets[i];
+                i++;
+            } else {
+                u = changed[j++];
+                if (i < base.ids.length && base.ids[i] == u) i++;
+                degree = delta.get(u).length;
+            }
+            if (degree == 0) continue;
+            ids[n] = u;
+            total += degree;
+            offsets[++n] = (int) total;
+        }
+        int[] targets = new int[(int) total];
+        for (int k = 0; k < n; k++) {
+            int u = ids[k];
+            int[] row = delta.get(u);
+            if (row != null) {
+                System.arraycopy(row, 0, targets, offsets[k], row.length);
+            } else {
+                int b = base.index(u);
+                System.arraycopy(base.targets, base.offsets[b], targets, offsets[k], offsets[k + 1] - offsets[k]);
+            }
+        }
+        return new Csr(Arrays.copyOf(ids, n), Arrays.copyOf(offsets, n + 1), targets);
+    }
+
+    /** Returns a copy of row with v inserted at index pos. */
+    private static int[] insert(int[] row, int pos, int v) {
+        int[] r = new int[row.length + 1];
+        System.arraycopy(row, 0, r, 0, pos);
+        r[pos] = v;
+        System.arraycopy(row, pos, r, pos + 1, row.length - pos);
+        return r;
+    }
+
+    /** Returns a copy of row without the element at index pos. */
+    private static int[] remove(int[] row, int pos) {
+        int[] r = new int[row.length - 1];
+        System.arraycopy(row, 0, r, 0, pos);
+        System.arraycopy(row, pos + 1, r, pos, row.length - pos - 1);
+        return r;
+    }
+}
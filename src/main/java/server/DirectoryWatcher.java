@@ -42,7 +42,8 @@ public class DirectoryWatcher implements Runnable {
                 if (Files.isDirectory(d)) {
                     d.register(watcher,
                             StandardWatchEventKinds.ENTRY_CREATE,
-                            StandardWatchEventKinds.ENTRY_MODIFY);
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
                     System.out.println(Util.getTimestamp()
                             + " DirectoryWatcher: watching " + d);
                 }
@@ -57,6 +58,7 @@ public class DirectoryWatcher implements Runnable {
      * Runs the watch loop, handling directory and file events:
      * Registers new client folders
      * Copies new or modified files with debouncing
+     * Tracks caption files created, synced or deleted in CaptionAvailability
      * Prunes old timestamp entries
      */
     @Override
@@ -83,7 +85,8 @@ public class DirectoryWatcher implements Runnable {
                     try {
                         fullPath.register(watcher,
                                 StandardWatchEventKinds.ENTRY_CREATE,
-                                StandardWatchEventKinds.ENTRY_MODIFY);
+                                StandardWatchEventKinds.ENTRY_MODIFY,
+                                StandardWatchEventKinds.ENTRY_DELETE);
                         System.out.println(Util.getTimestamp()
                                 + " DirectoryWatcher: registered new folder " + fullPath);
                     } catch (IOException ioe) {
@@ -95,17 +98,23 @@ public class DirectoryWatcher implements Runnable {
 
                 // B) Ignore root-level events (only subdirectories matter)
                 if (watchedDir.equals(serverRoot)) continue;
-                // C) Only process regular files
+                // C) Deleted files: drop any caption availability, nothing to copy
+                if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                    CaptionAvailability.getInstance().recordFileEvent(fullPath, false);
+                    continue;
+                }
+                // D) Only process regular files; keep caption availability in sync
                 if (!Files.isRegularFile(fullPath)) continue;
+                CaptionAvailability.getInstance().recordFileEvent(fullPath, true);
 
                 long now = System.currentTimeMillis();
                 Long lastTs = recent.get(fullPath);
-                // D) Debounce: skip if recently processed
+                // E) Debounce: skip if recently processed
                 if (lastTs != null && (now - lastTs) < DEBOUNCE_MS) {
                     continue;
                 }
 
-                // E) Copy file to corresponding ClientFiles folder
+                // F) Copy file to corresponding ClientFiles folder
                 try {
                     Path clientDir = Paths.get("ClientFiles", watchedDir.getFileName().toString());
                     Files.createDirectories(clientDir);
@@ -123,7 +132,7 @@ public class DirectoryWatcher implements Runnable {
 
             if (!key.reset()) break;
 
-            // F) Remove entries older than debounce interval
+            // G) Remove entries older than debounce interval
             long cutoff = System.currentTimeMillis() - DEBOUNCE_MS;
             recent.entrySet().removeIf(e -> e.getValue() < cutoff);
         }
@@ -0,0 +1,142 @@
+package server;
+
+/**
+ * Base class of the events published on the EventBus. The bus stamps each event
+ * with its sequence number and publication time; the nested classes are the
+ * concrete event types.
+ */
+public abstract class DomainEvent {
+    /** Position of the event in the bus, assigned on publication. */
+    long sequence = -1;
+    /** System.nanoTime() at publication, for end-to-end latency. */
+    long publishedAt;
+
+    /**
+     * A photo was stored and acknowledged to its uploader.
+     */
+    public static final class PhotoUploaded extends DomainEvent {
+        /** Numeric ID of the uploader. */
+        final String uploaderId;
+        /** Username of the uploader. */
+        final String uploaderUsername;
+        /** Stored photo file name. */
+        final String fileName;
+        /** Photo title as given by the uploader. */
+        final String photoTitle;
+        /** English caption (may be empty). */
+        final String captionEn;
+        /** Greek caption (may be empty). */
+        final String captionGr;
+        /** Whether followers pull this post from the uploader's outbox instead of getting it pushed. */
+        final boolean pullMode;
+
+        /**
+         * Constructs the event.
+         *
+         * @param uploaderId       the numeric ID of the uploader
+         * @param uploaderUsername the username of the uploader
+         * @param fileName         the stored photo file name
+         * @param photoTitle       the photo title
+         * @param captionEn        the English caption
+         * @param captionGr        the Greek caption
+         * @param pullMode         true if the post is delivered by pull
+         */
+        public PhotoUploaded(String uploaderId, String uploaderUsername, String fileName, String photoTitle,
+                             String captionEn, String captionGr, boolean pullMode) {
+            this.uploaderId = uploaderId;
+            this.uploaderUsername = uploaderUsername;
+            this.fileName = fileName;
+            this.photoTitle = photoTitle;
+            this.captionEn = captionEn;
+            this.captionGr = captionGr;
+            this.pullMode = pullMode;
+        }
+    }
+
+    /**
+     * A follow request was accepted or reciprocated and the new edges are durable.
+     */
+    public static final class FollowAccepted extends DomainEvent {
+        /** Numeric ID of the client who asked to follow. */
+        final String requesterId;
+        /** Numeric ID of the client who accepted. */
+        final String targetId;
+        /** True if the target also followed the requester back. */
+        final boolean reciprocated;
+        /** Notification text for the requester. */
+        final String notification;
+
+        /**
+         * Constructs the event.
+         *
+         * @param requesterId  the numeric ID of the requester
+         * @param targetId     the numeric ID of the accepting client
+         * @param reciprocated true if the follow was reciprocated
+         * @param notification the notification text for the requester
+         */
+        public FollowAccepted(String requesterId, String targetId, boolean reciprocated, String notification) {
+            this.requesterId = requesterId;
+            this.targetId = targetId;
+            this.reciprocated = reciprocated;
+            this.notification = notification;
+        }
+    }
+
+    /**
+     * A comment was appended to a post.
+     */
+    public static final class CommentAdded extends DomainEvent {
+        /** Numeric ID of the post's author (profile owner). */
+        final String authorId;
+        /** ID of the commented post. */
+        final String postId;
+        /** Numeric ID of the commenter. */
+        final String commenterId;
+        /** Notification text for the author and their followers. */
+        final String notification;
+
+        /**
+         * Constructs the event.
+         *
+         * @param authorId     the numeric ID of the post's author
+         * @param postId       the post ID
+         * @param commenterId  the numeric ID of the commenter
+         * @param notification the notification text
+         */
+        public CommentAdded(String authorId, String postId, String commenterId, String notification) {
+            this.authorId = authorId;
+            this.postId = postId;
+            this.commenterId = commenterId;
+            this.notification = notification;
+        }
+    }
+
+    /**
+     * A post was reposted into another client's Others_ file.
+     */
+    public static final class Reposted extends DomainEvent {
+        /** Numeric ID of the client who reposted. */
+        final String reposterId;
+        /** Numeric ID of the original author. */
+        final String authorId;
+        /** ID of the reposted post. */
+        final String postId;
+        /** Notification text for the original author. */
+        final String notification;
+
+        /**
+         * Constructs the event.
+         *
+         * @param reposterId   the numeric ID of the reposting client
+         * @param authorId     the numeric ID of the original author
+         * @param postId       the post ID
+         * @param notification the notification text
+         */
+        public Reposted(String reposterId, String authorId, String postId, String notification) {
+            this.reposterId = reposterId;
+            this.authorId = authorId;
+            this.postId = postId;
+            this.notification = notification;
+        }
+    }
+}
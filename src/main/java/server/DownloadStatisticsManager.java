@@ -2,6 +2,7 @@ package server;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Set;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -14,13 +15,32 @@ public class DownloadStatisticsManager {
     private static final ConcurrentMap<String, Set<String>> downloadersMap =
             new ConcurrentHashMap<>();
 
+    /** Per photo, the number of downloads each owner has served. */
+    private static final ConcurrentMap<String, ConcurrentMap<String, AtomicInteger>> servedMap =
+            new ConcurrentHashMap<>();
+
     /**
-     * Record that the given downloaderId has downloaded the given photoName.
+     * Record that the given downloaderId has downloaded the given photoName
+     * from the copy held by ownerId.
      */
-    public static void recordDownload(String photoName, String downloaderId) {
+    public static void recordDownload(String photoName, String downloaderId, String ownerId) {
         downloadersMap
                 .computeIfAbsent(photoName, k -> ConcurrentHashMap.newKeySet())
                 .add(downloaderId);
+        servedMap
+                .computeIfAbsent(photoName, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(ownerId, k -> new AtomicInteger())
+                .incrementAndGet();
+    }
+
+    /**
+     * Returns how many downloads of photoName were served from ownerId's copy.
+     */
+    public static int getServedCount(String photoName, String ownerId) {
+        ConcurrentMap<String, AtomicInteger> owners = servedMap.get(photoName);
+        if (owners == null) return 0;
+        AtomicInteger count = owners.get(ownerId);
+        return count == null ? 0 : count.get();
     }
 
     /**
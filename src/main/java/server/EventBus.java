@@ -0,0 +1,256 @@
+package server;
+
+import common.Constants;
+import common.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Singleton in-process event bus on a ring buffer, in the style of a Disruptor.
+ *<p>
+ * Publishers claim the next sequence number, store the event in the ring slot
+ * (sequence mod size) and advance the published cursor. Every consumer has its
+ * own thread and sequence; it claims all events published since its sequence, up
+ * to a batch cap, hands them over one by one in sequence order, flagging the last
+ * of the batch, then advances. An event whose handling throws is counted and
+ * skipped; the rest of the batch is still handled.
+ * A slot is reused only after every consumer has passed it, so a slow consumer
+ * holds back publishers rather than losing events. A consumer's lag is the
+ * distance between the cursor and its sequence.
+ *<p>
+ * Each consumer is a stage of the work following a request, e.g. the indexing,
+ * profile and fan-out work after an acknowledged upload. Per stage, the report
+ * shows the queue wait of each event (publication until the stage starts on it)
+ * and its service time, besides lag and failures.
+ */
+public class EventBus {
+    /**
+     * Singleton instance of EventBus, created with the class so concurrent first
+     * publishers cannot start a second set of consumers.
+     */
+    private static final EventBus INSTANCE = new EventBus();
+
+    /** Maximum number of events handed to a consumer in one batch. */
+    private static final int MAX_BATCH = 64;
+
+    /**
+     * Receives events in sequence order on its own thread.
+     */
+    public interface Consumer {
+        /** @return the name used in reports */
+        String name();
+
+        /**
+         * Processes one event; events a consumer does not care about are ignored.
+         *
+         * @param event      the event
+         * @param endOfBatch true for the last event of the batch claimed from the ring
+         * @throws Exception if processing failed; only this event is skipped
+         */
+        void onEvent(DomainEvent event, boolean endOfBatch) throws Exception;
+    }
+
+    /**
+     * Thread draining the ring for one consumer.
+     */
+    private class Worker implements Runnable {
+        /** The consumer fed by this worker. */
+        final Consumer consumer;
+        /** Sequence of the last event consumed. */
+        volatile long sequence = -1;
+        /** Time to process one batch. */
+        final LatencyTracker batchLatency;
+        /** Time from publication until this consumer started on an event. */
+        final LatencyTracker waitLatency;
+        /** Time this consumer spent on one event. */
+        final LatencyTracker serviceLatency;
+        /** Events consumed. */
+        final AtomicLong events = new AtomicLong();
+        /** Batches consumed. */
+        final AtomicLong batches = new AtomicLong();
+        /** Events whose processing threw. */
+        final AtomicLong failures = new AtomicLong();
+        /** Largest lag observed when starting a batch. */
+        volatile long maxLag = 0;
+
+        Worker(Consumer consumer) {
+            this.consumer = consumer;
+            this.batchLatency = new LatencyTracker(consumer.name() + " batch");
+            this.waitLatency = new LatencyTracker(consumer.name() + " queue wait");
+            this.serviceLatency = new LatencyTracker(consumer.name() + " service");
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long available = cursor;
+                if (available <= sequence) {
+                    synchronized (signal) {
+                        while (cursor <= sequence) {
+                            try {
+                                signal.wait();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                    continue;
+                }
+                maxLag = Math.max(maxLag, available - sequence);
+                long end = Math.min(available, sequence + MAX_BATCH);
+                long start = System.nanoTime();
+                for (long s = sequence + 1; s <= end; s++) {
+                    DomainEvent event = ring[(int) (s & mask)];
+                    long eventStart = System.nanoTime();
+                    waitLatency.recordSince(event.publishedAt);
+                    try {
+                        consumer.onEvent(event, s == end);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        System.out.println(Util.getTimestamp() + " EventBus: " + consumer.name()
+                                + " failed on event " + s + " (" + event.getClass().getSimpleName() + "): " + e);
+                    }
+                    serviceLatency.recordSince(eventStart);
+                }
+                batchLatency.recordSince(start);
+                events.addAndGet(end - sequence);
+                batches.incrementAndGet();
+                sequence = end;
+            }
+        }
+    }
+
+    /** Ring of published events; slot = sequence & mask. */
+    private final DomainEvent[] ring;
+    /** Ring size minus one; the size is a power of two. */
+    private final int mask;
+    /** Sequence of the last published event. */
+    private volatile long cursor = -1;
+    /** Monitor consumers wait on for new events. */
+    private final Object signal = new Object();
+    /** One worker per consumer. */
+    private final List<Worker> workers = new ArrayList<>();
+
+    /** Events published. */
+    private final AtomicLong published = new AtomicLong();
+    /** Times a publisher had to wait for the slowest consumer to free a slot. */
+    private final AtomicLong publisherStalls = new AtomicLong();
+
+    /** Private constructor for singleton pattern; registers and starts the consumers. */
+    private EventBus() {
+        // Ring size rounded up to a power of two so the slot is a mask, not a modulo
+        int size = Integer.highestOneBit(Math.max(2, Constants.EVENT_BUS_RING_SIZE - 1) << 1);
+        ring = new DomainEvent[size];
+        mask = size - 1;
+        register(new NotificationConsumer());
+        register(new SearchIndexConsumer());
+        register(new StatisticsConsumer());
+        register(new FeedConsumer());
+    }
+
+    /**
+     * Returns the singleton instance.
+     *
+     * @return the EventBus instance
+     */
+    public static EventBus getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a worker thread for a consumer.
+     */
+    private void register(Consumer consumer) {
+        Worker w = new Worker(consumer);
+        workers.add(w);
+        Thread t = new Thread(w, "EventBus-" + consumer.name());
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Publishes an event, waiting while the ring is full.
+     *
+     * @param event the event
+     */
+    public void publish(DomainEvent event) {
+        synchronized (this) {
+            long seq = cursor + 1;
+            boolean stalled = false;
+            while (seq - ring.length > minConsumerSequence()) {
+                stalled = true;
+                LockSupport.parkNanos(50_000);
+            }
+            if (stalled) publisherStalls.incrementAndGet();
+            event.sequence = seq;
+            event.publishedAt = System.nanoTime();
+            ring[(int) (seq & mask)] = event;
+            cursor = seq;
+        }
+        published.incrementAndGet();
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the sequence of the slowest consumer.
+     */
+    private long minConsumerSequence() {
+        long min = Long.MAX_VALUE;
+        for (Worker w : workers) min = Math.min(min, w.sequence);
+        return min;
+    }
+
+    /**
+     * Returns how many published events a consumer has not processed yet.
+     *
+     * @param name the consumer name
+     * @return the lag, or -1 if there is no such consumer
+     */
+    public long lag(String name) {
+        for (Worker w : workers) {
+            if (w.consumer.name().equals(name)) return cursor - w.sequence;
+        }
+        return -1;
+    }
+
+    /**
+     * Waits up to ten seconds for every consumer to catch up; used as a shutdown hook.
+     */
+    public void drain() {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline && minConsumerSequence() < cursor) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Prints publication counters and, per consumer, lag and batch statistics.
+     */
+    public void printReport() {
+        System.out.println("=== Event Bus Report ===");
+        System.out.println("Ring size: " + ring.length + ", published: " + published.get()
+                + ", publisher stalls: " + publisherStalls.get());
+        for (Worker w : workers) {
+            long b = w.batches.get();
+            System.out.printf("%s: lag %d (max %d), events %d in %d batches (avg %.1f), failures %d%n",
+                    w.consumer.name(), cursor - w.sequence, w.maxLag, w.events.get(), b,
+                    b == 0 ? 0.0 : (double) w.events.get() / b, w.failures.get());
+            System.out.println("  " + w.waitLatency.summary());
+            System.out.println("  " + w.serviceLatency.summary());
+            System.out.println("  " + w.batchLatency.summary());
+        }
+        for (Worker w : workers) {
+            if (w.consumer instanceof StatisticsConsumer) ((StatisticsConsumer) w.consumer).printReport();
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package server;
+
+import common.Constants;
+import common.Util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton fan-out engine delivering new posts to followers' Others_ files.
+ *<p>
+ * Uploads by ordinary accounts are pushed: every follower gets the notification
+ * and the post is appended to their Others_ file right away. Accounts with at
+ * least {@link Constants#FANOUT_PULL_THRESHOLD} followers are pulled instead: the
+ * post goes once to the uploader's outbox in ServerData, and each follower merges
+ * the outbox entries they have not seen into their Others_ file when they read
+ * their feed, i.e. at login. Followers online at upload time merge immediately,
+ * so the upload costs O(online clients) rather than O(followers).
+ *<p>
+ * A follower's merge position in each outbox is a count of entries, persisted in
+ * ServerData per follower. Following an account starts the position at the end of
+ * its outbox, so only later posts are delivered, as with push.
+ */
+public class FanoutEngine {
+    /** Singleton instance of FanoutEngine. */
+    private static FanoutEngine instance = null;
+
+    /**
+     * One post in an outbox.
+     */
+    private static class Post {
+        /** Numeric ID of the uploader (the outbox owner). */
+        final String uploaderId;
+        /** Upload time in milliseconds, for merging outboxes in order. */
+        final long postedAt;
+        /** Line appended to a follower's Others_ file. */
+        final String entry;
+        /** Notification text shown to a follower. */
+        final String notification;
+
+        Post(String uploaderId, long postedAt, String entry, String notification) {
+            this.uploaderId = uploaderId;
+            this.postedAt = postedAt;
+            this.entry = entry;
+            this.notification = notification;
+        }
+    }
+
+    /**
+     * Posts of one pull-mode uploader, in upload order; guarded by this.
+     */
+    private static class Outbox {
+        final List<Post> posts = new ArrayList<>();
+
+        synchronized void add(Post p) {
+            posts.add(p);
+        }
+
+        synchronized int size() {
+            return posts.size();
+        }
+
+        synchronized List<Post> since(int from) {
+            return from >= posts.size() ? Collections.emptyList()
+                                        : new ArrayList<>(posts.subList(from, posts.size()));
+        }
+    }
+
+    /** Outbox per uploader ID, for uploaders that have ever been in pull mode. */
+    private final ConcurrentHashMap<String, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    /**
+     * Follower ID → (uploader ID → outbox entries already merged); each inner map
+     * is loaded on first use and guarded by itself.
+     */
+    private final ConcurrentHashMap<String, Map<String, Integer>> cursors = new ConcurrentHashMap<>();
+
+    /** Time to append one upload to followers' Others_ files in push mode. */
+    private final LatencyTracker pushLatency = new LatencyTracker("Push fan-out");
+    /** Time to publish one upload in pull mode, including online followers' merges. */
+    private final LatencyTracker pullLatency = new LatencyTracker("Pull publish");
+    /** Time to merge outboxes into one follower's feed. */
+    private final LatencyTracker mergeLatency = new LatencyTracker("Pull merge");
+    /** Uploads fanned out by push. */
+    private final AtomicLong pushUploads = new AtomicLong();
+    /** Uploads published to an outbox. */
+    private final AtomicLong pullUploads = new AtomicLong();
+    /** Others_ appends done at upload time. */
+    private final AtomicLong pushedEntries = new AtomicLong();
+    /** Others_ appends done by merges. */
+    private final AtomicLong mergedEntries = new AtomicLong();
+    /** Follower appends avoided by publishing to an outbox. */
+    private final AtomicLong deferredDeliveries = new AtomicLong();
+
+    /** Private constructor for singleton pattern. */
+    private FanoutEngine() { }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the FanoutEngine instance
+     */
+    public static FanoutEngine getInstance() {
+        if (instance == null) {
+            instance = new FanoutEngine();
+        }
+        return instance;
+    }
+
+    /**
+     * Loads every outbox from ServerData; called once at startup.
+     */
+    public void loadOutboxes() {
+        Path dir = outboxDir();
+        if (!Files.isDirectory(dir)) return;
+        int posts = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.txt")) {
+            for (Path file : ds) {
+                String name = file.getFileName().toString();
+                String uploaderId = name.substring(0, name.length() - 4);
+                Outbox box = new Outbox();
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    String[] parts = line.split("\t", 3);
+                    if (parts.length != 3) continue;
+                    try {
+                        box.add(new Post(uploaderId, Long.parseLong(parts[0]), parts[1], parts[2]));
+                    } catch (NumberFormatException e) {
+                        // skip a torn line
+                    }
+                }
+                outboxes.put(uploaderId, box);
+                posts += box.size();
+            }
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " FanoutEngine: Error loading outboxes: " + e.getMessage());
+        }
+        System.out.println(Util.getTimestamp() + " FanoutEngine: Loaded " + outboxes.size()
+                + " outboxes with " + posts + " posts");
+    }
+
+    /**
+     * Decides how an upload is delivered: by pull if the uploader has at least
+     * {@link Constants#FANOUT_PULL_THRESHOLD} followers, by push otherwise.
+     *
+     * @param uploaderId the uploader's numeric ID
+     * @return true if followers should pull the post from the outbox
+     */
+    public boolean usesPull(String uploaderId) {
+        return SocialGraphManager.getInstance().getFollowerSnapshot(uploaderId).length
+                >= Constants.FANOUT_PULL_THRESHOLD;
+    }
+
+    /**
+     * Delivers a new post to the uploader's followers. Push appends it to every
+     * follower's Others_ file (their notifications are sent by NotificationConsumer);
+     * pull appends it to the outbox and merges it for followers online right now,
+     * which also notifies them.
+     *
+     * @param uploaderId       the uploader's numeric ID
+     * @param uploaderUsername the uploader's username
+     * @param photoTitle       the title of the uploaded photo
+     * @param pull             the delivery mode chosen by {@link #usesPull}
+     * @throws IOException if a push-mode Others_ file cannot be written; the other
+     *                     followers still get the entry
+     */
+    public void deliver(String uploaderId, String uploaderUsername, String photoTitle, boolean pull)
+            throws IOException {
+        long start = System.nanoTime();
+        String postEntry = "[" + Util.getTimestamp() + "] New post from "
+                + uploaderUsername + ": " + photoTitle;
+        int[] followers = SocialGraphManager.getInstance().getFollowerSnapshot(uploaderId);
+
+        if (!pull) {
+            // One follower's unwritable file must not cost the others their entry
+            IOException failed = null;
+            int failures = 0;
+            for (int fid : followers) {
+                try {
+                    appendToOthers(Integer.toString(fid), Collections.singletonList(postEntry));
+                } catch (IOException e) {
+                    failures++;
+                    failed = e;
+                }
+            }
+            pushedEntries.addAndGet(followers.length - failures);
+            pushUploads.incrementAndGet();
+            pushLatency.recordSince(start);
+            if (failed != null) {
+                throw new IOException(failures + " of " + followers.length
+                        + " Others_ appends failed, last: " + failed.getMessage(), failed);
+            }
+            return;
+        }
+
+        // Pull: one outbox append, then merge only for followers online right now
+        String notification = "User " + uploaderUsername + " uploaded " + photoTitle;
+        Post post = new Post(uploaderId, System.currentTimeMillis(), postEntry, notification);
+        appendToOutbox(uploaderId, post);
+        int online = 0;
+        for (String id : ClientHandler.activeClients.keySet()) {
+            if (SocialGraphManager.getInstance().follows(id, uploaderId)) {
+                mergeFeed(id);
+                online++;
+            }
+        }
+        deferredDeliveries.addAndGet(Math.max(0, followers.length - online));
+        pullUploads.incrementAndGet();
+        pullLatency.recordSince(start);
+        System.out.println(Util.getTimestamp() + " FanoutEngine: " + uploaderUsername + " has "
+                + followers.length + " followers; published to outbox, merged for " + online + " online");
+    }
+
+    /**
+     * Merges every unseen outbox post of the accounts a follower follows into
+     * their Others_ file, oldest first, and routes them one notification per
+     * uploader: the post's own notification for a single post, otherwise a digest
+     * with the number of posts.
+     *
+     * @param followerId the follower's numeric ID
+     */
+    public void mergeFeed(String followerId) {
+        if (outboxes.isEmpty()) return;
+        long start = System.nanoTime();
+        Map<String, Integer> positions = cursorsOf(followerId);
+        List<Post> merged = new ArrayList<>();
+        synchronized (positions) {
+            Map<String, Integer> advanced = new HashMap<>();
+            for (String followee : SocialGraphManager.getInstance().getFollowees(followerId)) {
+                Outbox box = outboxes.get(followee);
+                if (box == null) continue;
+                int from = positions.getOrDefault(followee, 0);
+                List<Post> fresh = box.since(from);
+                if (fresh.isEmpty()) continue;
+                merged.addAll(fresh);
+                advanced.put(followee, from + fresh.size());
+            }
+            if (merged.isEmpty()) return;
+            merged.sort(Comparator.comparingLong(p -> p.postedAt));
+            List<String> lines = new ArrayList<>(merged.size());
+            for (Post p : merged) lines.add(p.entry);
+            try {
+                appendToOthers(followerId, lines);
+            } catch (IOException e) {
+                System.out.println(Util.getTimestamp() + " FanoutEngine: Error merging feed of client "
+                        + followerId + ": " + e.getMessage());
+                return;
+            }
+            positions.putAll(advanced);
+            saveCursors(followerId, positions);
+        }
+        Map<String, List<Post>> byUploader = new LinkedHashMap<>();
+        for (Post p : merged) {
+            byUploader.computeIfAbsent(p.uploaderId, k -> new ArrayList<>()).add(p);
+        }
+        for (Map.Entry<String, List<Post>> e : byUploader.entrySet()) {
+            String source = AuthenticationManager.getUsernameByNumericId(e.getKey());
+            List<Post> posts = e.getValue();
+            String text = posts.size() == 1
+                    ? posts.get(0).notification
+                    : NotificationKind.UPLOAD.digest(source, posts.size());
+            NotificationRouter.getInstance().deliver(followerId, NotificationKind.UPLOAD, source, text);
+        }
+        mergedEntries.addAndGet(merged.size());
+        mergeLatency.recordSince(start);
+    }
+
+    /**
+     * Starts a new follower's position at the end of the followee's outbox, so
+     * posts made before the follow are not delivered.
+     *
+     * @param followerId the follower's numeric ID
+     * @param followeeId the followed account's numeric ID
+     */
+    public void followed(String followerId, String followeeId) {
+        Outbox box = outboxes.get(followeeId);
+        if (box == null) return;
+        Map<String, Integer> positions = cursorsOf(followerId);
+        synchronized (positions) {
+            positions.put(followeeId, box.size());
+            saveCursors(followerId, positions);
+        }
+    }
+
+    /**
+     * Drops a follower's position in a followee's outbox, after an unfollow or
+     * after a follow that could not be saved.
+     *
+     * @param followerId the follower's numeric ID
+     * @param followeeId the unfollowed account's numeric ID
+     */
+    public void unfollowed(String followerId, String followeeId) {
+        Map<String, Integer> positions = cursorsOf(followerId);
+        synchronized (positions) {
+            if (positions.remove(followeeId) != null) saveCursors(followerId, positions);
+        }
+    }
+
+    /**
+     * Returns a follower's position in a followee's outbox.
+     *
+     * @param followerId the follower's numeric ID
+     * @param followeeId the followed account's numeric ID
+     * @return the position, or null if the follower has none
+     */
+    public Integer positionOf(String followerId, String followeeId) {
+        Map<String, Integer> positions = cursorsOf(followerId);
+        synchronized (positions) {
+            return positions.get(followeeId);
+        }
+    }
+
+    /**
+     * Puts back a position read with {@link #positionOf}, after an unfollow that
+     * could not be saved, so posts the follower had not merged yet are still merged.
+     *
+     * @param followerId the follower's numeric ID
+     * @param followeeId the followed account's numeric ID
+     * @param position   the earlier position, or null to leave the current one
+     */
+    public void restorePosition(String followerId, String followeeId, Integer position) {
+        if (position == null) return;
+        Map<String, Integer> positions = cursorsOf(followerId);
+        synchronized (positions) {
+            positions.put(followeeId, position);
+            saveCursors(followerId, positions);
+        }
+    }
+
+    /**
+     * Appends a post to an uploader's outbox, in memory and on disk.
+     */
+    private void appendToOutbox(String uploaderId, Post post) throws IOException {
+        Outbox box = outboxes.computeIfAbsent(uploaderId, k -> new Outbox());
+        synchronized (box) {
+            Files.createDirectories(outboxDir());
+            try (Writer w = Files.newBufferedWriter(outboxDir().resolve(uploaderId + ".txt"),
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                w.write(post.postedAt + "\t" + post.entry.replace('\t', ' ') + "\t"
+                        + post.notification.replace('\t', ' ') + "\n");
+            }
+            box.add(post);
+        }
+    }
+
+    /**
+     * Appends lines to a client's server-side Others_ file, marking the change so
+     * DirectoryWatcher does not mirror it back.
+     */
+    private static void appendToOthers(String clientId, List<String> lines) throws IOException {
+        Path followerDir = Paths.get("ServerFiles", Constants.GROUP_ID + "client" + clientId);
+        Files.createDirectories(followerDir);
+        File othersFile = new File(
+                followerDir.toFile(),
+                Constants.OTHERS_PREFIX + Constants.GROUP_ID + "client" + clientId + ".txt"
+        );
+        try (FileWriter fw = new FileWriter(othersFile, true)) {
+            for (String line : lines) fw.write(line + "\n");
+        }
+        SyncRegistry.markEvent(othersFile.toPath());
+    }
+
+    /**
+     * Returns a follower's outbox positions, loading them from disk on first use.
+     */
+    private Map<String, Integer> cursorsOf(String followerId) {
+        return cursors.computeIfAbsent(followerId, id -> {
+            Map<String, Integer> m = new HashMap<>();
+            Path file = cursorDir().resolve(id + ".txt");
+            if (Files.exists(file)) {
+                try {
+                    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                        String[] parts = line.split(" ");
+                        if (parts.length == 2) m.put(parts[0], Integer.parseInt(parts[1]));
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    System.out.println(Util.getTimestamp() + " FanoutEngine: Error reading feed cursors of client "
+                            + id + ": " + e.getMessage());
+                }
+            }
+            return m;
+        });
+    }
+
+    /**
+     * Writes a follower's outbox positions; called with the map's lock held.
+     */
+    private static void saveCursors(String followerId, Map<String, Integer> positions) {
+        Path file = cursorDir().resolve(followerId + ".txt");
+        Path tmp  = file.resolveSibling(followerId + ".txt.tmp");
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> e : positions.entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp() + " FanoutEngine: Error saving feed cursors of client "
+                    + followerId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Directory of the outbox files, one per pull-mode uploader.
+     */
+    private static Path outboxDir() {
+        return Paths.get(Constants.SERVER_DATA_DIR, "outbox");
+    }
+
+    /**
+     * Directory of the per-follower outbox position files.
+     */
+    private static Path cursorDir() {
+        return Paths.get(Constants.SERVER_DATA_DIR, "feed_cursors");
+    }
+
+    /**
+     * Prints push versus pull counts and latencies against the current threshold.
+     */
+    public void printReport() {
+        System.out.println("=== Fan-out Report ===");
+        System.out.printf("Pull threshold: %d followers; uploads pushed: %d, pulled: %d%n",
+                Constants.FANOUT_PULL_THRESHOLD, pushUploads.get(), pullUploads.get());
+        System.out.printf("Others_ appends at upload: %d, by merge: %d, deferred at upload: %d, outboxes: %d%n",
+                pushedEntries.get(), mergedEntries.get(), deferredDeliveries.get(), outboxes.size());
+        System.out.println(pushLatency.summary());
+        System.out.println(pullLatency.summary());
+        System.out.println(mergeLatency.summary());
+    }
+}
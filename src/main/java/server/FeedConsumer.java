@@ -0,0 +1,29 @@
+package server;
+
+/**
+ * EventBus consumer materializing feeds for uploaded photos: appends the post to
+ * the uploader's profile, then delivers it to followers' Others_ files by push
+ * or to the uploader's outbox by pull.
+ */
+public class FeedConsumer implements EventBus.Consumer {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String name() {
+        return "Feed";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEvent(DomainEvent e, boolean endOfBatch) throws Exception {
+        if (e instanceof DomainEvent.PhotoUploaded) {
+            DomainEvent.PhotoUploaded u = (DomainEvent.PhotoUploaded) e;
+            ProfileManager.getInstance().updateProfile(u.uploaderId, u.photoTitle);
+            FanoutEngine.getInstance().deliver(u.uploaderId, u.uploaderUsername, u.photoTitle, u.pullMode);
+        }
+    }
+}
@@ -34,13 +34,76 @@ public class FileManager {
      */
     private static ConcurrentHashMap<String, String> titleToFileName = new ConcurrentHashMap<>();
 
+    /**
+     * Records that a client holds a copy of the photo (search by file name).
+     *
+     * @param fileName the photo file name
+     * @param ownerId  the numeric ID of the owner
+     */
+    static void indexPhoto(String fileName, String ownerId) {
+        photoOwners
+                .computeIfAbsent(fileName, k -> ConcurrentHashMap.newKeySet())
+                .add(ownerId);
+    }
+
+    /**
+     * Records that a client posted a photo under a title (search by title).
+     *
+     * @param titleKey the trimmed, lowercase photo title
+     * @param fileName the photo file name
+     * @param ownerId  the numeric ID of the owner
+     */
+    static void indexTitle(String titleKey, String fileName, String ownerId) {
+        titleOwners
+                .computeIfAbsent(titleKey, k -> ConcurrentHashMap.newKeySet())
+                .add(ownerId);
+        titleToFileName.putIfAbsent(titleKey, fileName);
+        TitleTrigramIndex.getInstance().addTitle(titleKey);
+    }
+
+    /**
+     * Writes a file and forces it to disk before returning.
+     *
+     * @param file  the file to write
+     * @param bytes the content
+     * @throws IOException if writing or syncing fails
+     */
+    private static void writeDurably(File file, byte[] bytes) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(bytes);
+            fos.getFD().sync();
+        }
+    }
+
+    /**
+     * Updates the search indexes for an acknowledged upload; run by the
+     * SearchIndexConsumer.
+     *
+     * @param job the upload event
+     */
+    static void indexUpload(DomainEvent.PhotoUploaded job) {
+        String key = job.photoTitle.trim().toLowerCase();
+        indexPhoto(job.fileName, job.uploaderId);
+        indexTitle(key, job.fileName, job.uploaderId);
+        StartupIndexer.getInstance().recordTitle(job.uploaderId, key, job.fileName);
+        SearchRanker.recordAcquired(job.fileName, job.uploaderId);
+        SearchCache.getInstance().invalidatePhoto(job.photoTitle, job.fileName);
+        CaptionAvailability.getInstance().markAvailable(job.fileName, job.uploaderId, "en");
+        if (!job.captionGr.isEmpty()) {
+            CaptionAvailability.getInstance().markAvailable(job.fileName, job.uploaderId, "gr");
+        }
+        CaptionIndex.getInstance().indexCaption(job.uploaderId, job.fileName, "en", job.captionEn);
+        CaptionIndex.getInstance().indexCaption(job.uploaderId, job.fileName, "gr", job.captionGr);
+    }
+
     /**
      * Handles a client upload request by saving the photo and caption,
      * updating search indices, notifying followers, and sending a response.
      *<p>
-     * Parses the payload for title, filename, caption, and data; decodes or reads
-     * file bytes; writes to ServerFiles; updates photoOwners and titleOwners;
-     * notifies followers and the uploading client via diagnostic messages.
+     * Parses the payload for title, filename, caption, and data; decodes the file
+     * bytes; writes the photo and captions to ServerFiles and syncs them; then
+     * acknowledges the client and publishes a PhotoUploaded event, whose consumers
+     * do the indexing, the profile update, notifications and follower fan-out.
      *
      * @param msg      the upload Message containing metadata and optional Base64 data
      * @param clientId the numeric ID of the uploading client
@@ -76,91 +139,38 @@ public class FileManager {
             Path dir = Paths.get("ServerFiles", Constants.GROUP_ID + "client" + clientId);
             Files.createDirectories(dir);
 
-            // --- 2) Save the photo file ---
+            // --- 2) Save the photo file, durably ---
             File photoFile = new File(dir.toFile(), fileName);
-            try (FileOutputStream fos = new FileOutputStream(photoFile)) {
-                fos.write(fileBytes);
-            }
+            writeDurably(photoFile, fileBytes);
             System.out.println(Util.getTimestamp() + " FileManager: Saved photo file " + fileName);
             SyncRegistry.markEvent(photoFile.toPath());
 
-            // --- 3) Update search indices ---
-            // by filename
-            photoOwners
-                    .computeIfAbsent(fileName, k -> ConcurrentHashMap.newKeySet())
-                    .add(clientId);
-            // by title
-            String key = photoTitle.trim().toLowerCase();
-            titleOwners
-                    .computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet())
-                    .add(clientId);
-            titleToFileName.putIfAbsent(key, fileName);
-
-            // --- 4) Save bilingual captions ---
+            // --- 3) Save bilingual captions ---
             // Always write the English caption (even if empty, to clear old data)
             File capEnFile = new File(dir.toFile(), fileName + "_en.txt");
-            try (FileOutputStream fos = new FileOutputStream(capEnFile)) {
-                fos.write(captionEn.getBytes());
-            }
+            writeDurably(capEnFile, captionEn.getBytes());
             System.out.println(Util.getTimestamp() + " FileManager: Saved English caption for " + fileName);
 
             // Only write a Greek caption file if one was provided
             if (!captionGr.isEmpty()) {
                 File capGrFile = new File(dir.toFile(), fileName + "_gr.txt");
-                try (FileOutputStream fos = new FileOutputStream(capGrFile)) {
-                    fos.write(captionGr.getBytes());
-                }
+                writeDurably(capGrFile, captionGr.getBytes());
                 System.out.println(Util.getTimestamp() + " FileManager: Saved Greek caption for " + fileName);
             }
 
-            // 5) Notify followers of new upload
-            ProfileManager.getInstance().updateProfile(clientId, photoTitle);
-            String uploaderUsername = AuthenticationManager.getUsernameByNumericId(clientId);
-            String notification = "User " + uploaderUsername + " uploaded " + photoTitle;
-            Set<String> followers = SocialGraphManager.getInstance().getFollowers(clientId);
-            if (followers != null) {
-                for (String f : followers) {
-                    // queue for offline
-                    NotificationManager.getInstance().addNotification(f, notification);
-                    // live push & purge
-                    ClientHandler h = ClientHandler.activeClients.get(f);
-                    if (h != null) {
-                        h.sendExternalMessage(new Message(
-                                MessageType.DIAGNOSTIC,
-                                "Server",
-                                notification
-                        ));
-                        NotificationManager.getInstance()
-                                .removeNotification(f, notification);
-                    }
-                }
-            }
-
-            // 6) Propagate new post into each follower's Others file
-            if (followers != null && !followers.isEmpty()) {
-                String postEntry = "[" + Util.getTimestamp() + "] New post from "
-                        + uploaderUsername + ": " + photoTitle;
-                for (String f : followers) {
-                    Path followerDir = Paths.get("ServerFiles", Constants.GROUP_ID + "client" + f);
-                    Files.createDirectories(followerDir);
-                    File othersFile = new File(
-                            followerDir.toFile(),
-                            Constants.OTHERS_PREFIX + Constants.GROUP_ID + "client" + f + ".txt"
-                    );
-                    try (FileWriter fw = new FileWriter(othersFile, true)) {
-                        fw.write(postEntry + "\n");
-                    }
-                    SyncRegistry.markEvent(othersFile.toPath());
-                }
-            }
-
-            // 7) Acknowledge upload
+            // 4) Acknowledge upload as soon as the files are on disk
             output.writeObject(new Message(
                     MessageType.DIAGNOSTIC,
                     "Server",
                     "Upload successful for " + fileName
             ));
             output.flush();
+
+            // 5) Indexing, profile update, notifications and fan-out consume the event
+            EventBus.getInstance().publish(new DomainEvent.PhotoUploaded(
+                    clientId, AuthenticationManager.getUsernameByNumericId(clientId),
+                    fileName, photoTitle, captionEn, captionGr,
+                    FanoutEngine.getInstance().usesPull(clientId)));
             System.out.println(Util.getTimestamp() + " FileManager: UPLOAD completed for client " + clientId);
 
         } catch (IOException e) {
@@ -172,9 +182,16 @@ public class FileManager {
     /**
      * Processes a search request carrying both preferred language and query,
      * filters results to the client’s followees, and returns a diagnostic message listing matches.
-     * Now also filters owners by existence of the requested-language caption file.
+     * Now also filters owners by availability of the requested-language caption, using the
+     * in-memory CaptionAvailability map rather than probing caption files on disk.
+     * Resolved owner sets are served from SearchCache when a fresh entry exists.
+     * When neither a title nor a file name matches exactly, the closest title from
+     * TitleTrigramIndex within a small edit distance is used instead.
+     * Owners are returned ranked by SearchRanker, one page at a time; online owners
+     * are tagged "[online]" and a " next:&lt;cursor&gt;" suffix is added when more remain.
      *
      * @param msg      the search Message containing "lang:<en|gr>|query:<photoTitle>"
+     *                 and optionally "|cursor:<cursor>" to fetch a following page
      * @param clientId the numeric ID of the searching client
      * @param output   the ObjectOutputStream to send the search result
      */
@@ -185,48 +202,131 @@ public class FileManager {
         Map<String, String> map = Util.parsePayload(msg.getPayload());
         String lang  = map.getOrDefault("lang", "en");
         String query = map.getOrDefault("query", "").trim();
-
-        // 2) Determine file name and candidate owners
-        String key      = query.toLowerCase();
-        String fileName = titleToFileName.get(key);
-        Set<String> owners;
-        if (fileName != null) {
-            owners = titleOwners.getOrDefault(key, Set.of());
+        String cursor = map.get("cursor");
+
+        // 2) Serve from the search cache when possible
+        SearchCache cache = SearchCache.getInstance();
+        SearchCache.Entry cached = cache.get(clientId, query, lang);
+        String fileName;
+        String correctedTitle;
+        Set<String> available;
+        if (cached != null) {
+            fileName       = cached.getFileName();
+            correctedTitle = cached.getCorrectedTitle();
+            available      = cached.getOwners();
         } else {
-            fileName = query;
-            owners   = photoOwners.getOrDefault(fileName, Set.of());
+            long generation = cache.generation();
+
+            // 3) Determine file name and candidate owners:
+            //    exact title, then exact file name, then closest fuzzy title
+            String key = query.toLowerCase();
+            fileName       = titleToFileName.get(key);
+            correctedTitle = null;
+            Set<String> owners;
+            if (fileName != null) {
+                owners = titleOwners.getOrDefault(key, Set.of());
+            } else if (photoOwners.containsKey(query)) {
+                fileName = query;
+                owners   = photoOwners.get(query);
+            } else {
+                List<String> fuzzy = TitleTrigramIndex.getInstance().search(key, 1);
+                String best = fuzzy.isEmpty() ? null : fuzzy.get(0);
+                if (best != null && titleToFileName.containsKey(best)) {
+                    correctedTitle = best;
+                    fileName = titleToFileName.get(best);
+                    owners   = titleOwners.getOrDefault(best, Set.of());
+                } else {
+                    fileName = query;
+                    owners   = Set.of();
+                }
+            }
+
+            // 4) Filter by followees
+            Set<String> followees = SocialGraphManager.getInstance().getFollowees(clientId);
+            available = owners.stream()
+                    .filter(followees::contains)
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+
+            // 5) Further filter by availability of caption in requested language
+            available.retainAll(CaptionAvailability.getInstance().ownersWithCaption(fileName, lang));
+            cached = cache.put(clientId, query, lang, fileName, correctedTitle, available, generation);
         }
 
-        // 3) Filter by followees
-        Set<String> followees = SocialGraphManager.getInstance().getFollowees(clientId);
-        Set<String> available = owners.stream()
-                .filter(followees::contains)
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        // 4) Further filter by existence of caption in requested language
-        String finalFileName = fileName;
-        available = available.stream()
-                .filter(ownerId -> {
-                    // caption file: ServerFiles/<group>client<ownerId>/<fileName>_<lang>.txt
-                    Path cap = Paths.get("ServerFiles",
-                            Constants.GROUP_ID + "client" + ownerId,
-                            finalFileName + "_" + lang + ".txt");
-                    return Files.exists(cap);
-                })
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        // 5) Build result
+        // 6) Score owners (first page) or reuse the first page's scores, and select one page
+        Map<String, Double> scores = cursor == null || cached == null ? null : cached.getScores();
+        if (scores == null) {
+            scores = SearchRanker.scoreAll(fileName, available);
+            if (cached != null) cached.setScores(scores);
+        }
+        SearchRanker.Page page = SearchRanker.page(scores, cursor, Constants.SEARCH_PAGE_SIZE);
         String result;
-        if (available.isEmpty()) {
-            result = "Search: no followees have photo " + query + " (" + lang + ")";
+        if (page.getOwners().isEmpty()) {
+            result = cursor == null
+                    ? "Search: no followees have photo " + query + " (" + lang + ")"
+                    : "Search: no more owners of " + query + " (" + lang + ")";
         } else {
-            String listing = available.stream()
-                    .map(id -> id + "(" + AuthenticationManager.getUsernameByNumericId(id) + ")")
+            String listing = page.getOwners().stream()
+                    .map(id -> id + "(" + AuthenticationManager.getUsernameByNumericId(id) + ")"
+                            + (SearchRanker.isOnline(id) ? "[online]" : ""))
                     .collect(Collectors.joining(","));
             result = "Search: found photo " + fileName + " (" + lang + ") at: " + listing;
+            if (page.getNextCursor() != null) {
+                result += " next:" + page.getNextCursor();
+            }
+        }
+
+        // 7) Send back, noting any spelling correction first
+        try {
+            if (correctedTitle != null) {
+                output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server",
+                        "Search: no exact match for '" + query + "', showing results for '"
+                                + correctedTitle + "'"));
+            }
+            output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server", result));
+            output.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
+
+    /**
+     * Processes a caption full-text search carrying the preferred language and
+     * free-text query, restricted to photos held by the client's followees,
+     * and returns a diagnostic message listing matching photos and owners.
+     *
+     * @param msg      the search Message containing "lang:&lt;en|gr&gt;|query:&lt;text&gt;"
+     * @param clientId the numeric ID of the searching client
+     * @param output   the ObjectOutputStream to send the search result
+     */
+    public static void handleCaptionSearch(Message msg,
+                                           String clientId,
+                                           ObjectOutputStream output) {
+        // 1) Parse payload
+        Map<String, String> map = Util.parsePayload(msg.getPayload());
+        String lang  = map.getOrDefault("lang", "en");
+        String query = map.getOrDefault("query", "").trim();
+
+        // 2) Look up matching captions and keep only followees' copies
+        Map<String, Set<String>> matches = CaptionIndex.getInstance().search(lang, query);
+        Set<String> followees = SocialGraphManager.getInstance().getFollowees(clientId);
+        List<String> listings = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> e : matches.entrySet()) {
+            String owners = e.getValue().stream()
+                    .filter(followees::contains)
+                    .map(id -> id + "(" + AuthenticationManager.getUsernameByNumericId(id) + ")")
+                    .collect(Collectors.joining(","));
+            if (!owners.isEmpty()) {
+                listings.add(e.getKey() + " at: " + owners);
+            }
+        }
+
+        // 3) Build result
+        String result = listings.isEmpty()
+                ? "Caption search: no followees have captions matching " + query + " (" + lang + ")"
+                : "Caption search: matches for " + query + " (" + lang + "): "
+                        + String.join("; ", listings);
 
-        // 6) Send back
+        // 4) Send back
         try {
             output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server", result));
             output.flush();
@@ -392,10 +492,11 @@ public class FileManager {
                     + " FileManager: DOWNLOAD completed successfully for " + photoName);
 
             // 10) Update search & stats
-            photoOwners
-                    .computeIfAbsent(photoName, k -> ConcurrentHashMap.newKeySet())
-                    .add(downloaderId);
-            DownloadStatisticsManager.recordDownload(photoName, downloaderId);
+            indexPhoto(photoName, downloaderId);
+            StartupIndexer.getInstance().recordPhoto(downloaderId, photoName);
+            SearchCache.getInstance().invalidateFile(photoName);
+            SearchRanker.recordAcquired(photoName, downloaderId);
+            DownloadStatisticsManager.recordDownload(photoName, downloaderId, ownerId);
 
         } catch (ClassNotFoundException ex) {
             ex.printStackTrace();
@@ -0,0 +1,89 @@
+package server;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Command-line benchmark comparing the heap used by the follower graph as
+ * boxed {@code HashMap<String, Set<String>>} versus CompactGraph.
+ *<p>
+ * Usage: {@code java server.GraphMemoryBenchmark [edges] [users] [--boxed]}.
+ * Defaults are 10,000,000 edges over 1,000,000 users; the boxed representation is
+ * only built with --boxed, since at 10M edges it needs several GB of heap.
+ */
+public class GraphMemoryBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional edge count, user count and --boxed flag
+     */
+    public static void main(String[] args) {
+        int edges = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        boolean boxed = args.length > 2 && args[2].equals("--boxed");
+
+        // Random edge list with a fixed seed so runs are comparable
+        Random rnd = new Random(42);
+        int[] followee = new int[edges];
+        int[] follower = new int[edges];
+        for (int i = 0; i < edges; i++) {
+            followee[i] = rnd.nextInt(users);
+            follower[i] = rnd.nextInt(users);
+        }
+        System.out.printf("Generated %,d edges over %,d users%n", edges, users);
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        CompactGraph graph = CompactGraph.fromEdges(followee, follower, edges);
+        long buildMs = (System.nanoTime() - start) / 1_000_000;
+        long compactBytes = usedHeap() - before;
+        System.out.printf("CompactGraph: %,d edges, built in %,d ms, heap %,d bytes (%.1f bytes/edge), "
+                        + "arrays %,d bytes%n",
+                graph.edgeCount(), buildMs, compactBytes,
+                (double) compactBytes / graph.edgeCount(), graph.footprintBytes());
+
+        // Sample lookups to show the read path works on the built graph
+        start = System.nanoTime();
+        int hits = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            int j = rnd.nextInt(edges);
+            if (graph.hasEdge(follower[j], followee[j])) hits++;
+        }
+        System.out.printf("CompactGraph: 1,000,000 hasEdge lookups in %,d ms (%d hits)%n",
+                (System.nanoTime() - start) / 1_000_000, hits);
+
+        if (boxed) {
+            before = usedHeap();
+            Map<String, Set<String>> map = new HashMap<>();
+            for (int i = 0; i < edges; i++) {
+                map.computeIfAbsent(Integer.toString(followee[i]), k -> new HashSet<>())
+                        .add(Integer.toString(follower[i]));
+            }
+            long boxedBytes = usedHeap() - before;
+            System.out.printf("HashMap<String, Set<String>>: heap %,d bytes (%.1f bytes/edge)%n",
+                    boxedBytes, (double) boxedBytes / graph.edgeCount());
+            System.out.println("(keeping " + map.size() + " rows reachable until measured)");
+        }
+        System.out.println("(keeping " + graph.edgeCount() + " edges reachable until measured)");
+    }
+
+    /**
+     * Returns heap in use after requesting garbage collection.
+     */
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,583 @@
+package server;
+
+import common.Constants;
+import common.Util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Singleton write-ahead log that makes social graph mutations durable.
+ *<p>
+ * Every edge added or removed after startup is appended to a WAL file in
+ * ServerData as a fixed-size checksummed record. Appends only buffer the record;
+ * a flusher thread writes everything buffered so far and forces it to disk in one
+ * fsync (group commit), so callers waiting for durability share the cost of a sync.
+ * Callers do not block for it: {@link #whenDurable} returns a future that the
+ * flusher completes once the records logged so far are on disk.
+ * Once a WAL file holds enough records, the flusher switches to a new WAL
+ * generation and writes a binary snapshot of the graph that starts from it, then
+ * deletes the older generations. Startup loads the snapshot and replays the WAL
+ * generations written after it.
+ *<p>
+ * A batch whose write or fsync fails is cut off the file again, put back in
+ * front of the buffer and retried after GRAPH_WAL_RETRY_MS; futures waiting
+ * for records in it complete with false instead of true.
+ */
+public class GraphWal implements CompactGraph.MutationLog {
+    /** Singleton instance of GraphWal. */
+    private static GraphWal instance = null;
+
+    /** Identifies graph snapshot files written by this class. */
+    private static final int SNAPSHOT_MAGIC = 0x47524150;
+    /** Snapshot format version. */
+    private static final int SNAPSHOT_VERSION = 1;
+    /** Bytes per WAL record: op, follower, followee, CRC32 of the first 9 bytes. */
+    private static final int RECORD_BYTES = 13;
+    /** Record op for an added edge. */
+    private static final byte OP_ADD = 1;
+    /** Record op for a removed edge. */
+    private static final byte OP_REMOVE = 2;
+
+    /**
+     * A graph loaded from a snapshot, with the first WAL generation to replay on top.
+     */
+    private static class Snapshot {
+        /** First WAL generation not folded into the snapshot. */
+        final long firstGeneration;
+        /** The snapshotted graph. */
+        final CompactGraph graph;
+
+        Snapshot(long firstGeneration, CompactGraph graph) {
+            this.firstGeneration = firstGeneration;
+            this.graph = graph;
+        }
+    }
+
+    /** Records appended but not yet handed to the flusher; guarded by this. */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    /** Sequence number of the last appended record; guarded by this. */
+    private long appendedSeq = 0;
+    /** Sequence number of the last record forced to disk; guarded by this. */
+    private long durableSeq = 0;
+    /** Sequence number of the last record in a batch whose write failed; guarded by this. */
+    private long failedSeq = 0;
+    /** Set once shutdown begins; guarded by this. */
+    private boolean closing = false;
+
+    /**
+     * A future waiting for every record up to a sequence number to be durable.
+     */
+    private static final class Waiter {
+        /** Sequence number of the last record awaited. */
+        final long target;
+        /** Completed with true once durable, false if writing failed. */
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        Waiter(long target) {
+            this.target = target;
+        }
+    }
+
+    /** Pending waiters in ascending target order; guarded by this. */
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    /** Set once the flusher has exited, so no new waiter is left pending; guarded by this. */
+    private boolean flusherStopped = false;
+
+    /** The graph being logged; snapshotted on compaction. */
+    private CompactGraph graph;
+    /** Generation of the WAL file being appended to. */
+    private long generation;
+    /** Open channel of the current WAL file; only used by the flusher. */
+    private FileChannel channel;
+    /** Records written to the current WAL file. */
+    private long recordsInFile = 0;
+    /** The flusher thread, or null before start. */
+    private Thread flusher;
+
+    /** Latency of each batch write plus fsync. */
+    private final LatencyTracker syncLatency = new LatencyTracker("WAL group commit");
+    /** Number of records made durable. */
+    private final AtomicLong recordsWritten = new AtomicLong();
+    /** Number of batches forced to disk. */
+    private final AtomicLong batches = new AtomicLong();
+    /** Number of batch writes that failed and were retried. */
+    private final AtomicLong writeFailures = new AtomicLong();
+    /** Number of compactions into a snapshot. */
+    private final AtomicLong compactions = new AtomicLong();
+    /** Time taken by the last startup recovery, in milliseconds. */
+    private volatile long recoveryMs = -1;
+    /** Records replayed from WAL files at the last startup. */
+    private volatile long replayedRecords = 0;
+
+    /** Private constructor for singleton pattern. */
+    private GraphWal() { }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the GraphWal instance
+     */
+    public static GraphWal getInstance() {
+        if (instance == null) {
+            instance = new GraphWal();
+        }
+        return instance;
+    }
+
+    /**
+     * Recovers the graph: loads the latest snapshot, or the seed file through
+     * SocialGraphManager if there is none, then replays every newer WAL generation.
+     * Afterwards logging is attached to the graph and the flusher is started.
+     *
+     * @param manager  the manager whose graph is recovered
+     * @param seedFile the text graph file used when no snapshot exists
+     */
+    public void recover(SocialGraphManager manager, String seedFile) {
+        long start = System.currentTimeMillis();
+        try {
+            Files.createDirectories(Paths.get(Constants.SERVER_DATA_DIR));
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " GraphWal: Cannot create " + Constants.SERVER_DATA_DIR + ": " + e.getMessage());
+        }
+
+        // 1) Snapshot, else the seed file
+        long firstGeneration = 0;
+        CompactGraph loaded = null;
+        try {
+            Snapshot snapshot = loadSnapshot();
+            if (snapshot != null) {
+                firstGeneration = snapshot.firstGeneration;
+                loaded = snapshot.graph;
+            }
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " GraphWal: Error reading graph snapshot, using " + seedFile + ": " + e.getMessage());
+        }
+        if (loaded != null) {
+            manager.setGraph(loaded);
+        } else {
+            manager.loadSocialGraph(seedFile);
+        }
+        graph = manager.getGraph();
+
+        // 2) Replay WAL generations written since the snapshot
+        long replayed = 0;
+        generation = firstGeneration;
+        for (long g : walGenerations()) {
+            if (g < firstGeneration) continue;
+            replayed += replay(walPath(g));
+            generation = Math.max(generation, g);
+        }
+        replayedRecords = replayed;
+        recoveryMs = System.currentTimeMillis() - start;
+        System.out.println(Util.getTimestamp() + " GraphWal: Recovered " + graph.edgeCount()
+                + " edges in " + recoveryMs + " ms (" + replayed + " WAL records replayed)");
+
+        // 3) Fold the replayed tail into a fresh snapshot so the next recovery is short
+        try {
+            openGeneration(replayed > 0 ? generation + 1 : generation);
+            if (replayed > 0) compact();
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp() + " GraphWal: Cannot open WAL: " + e.getMessage());
+            return;
+        }
+
+        graph.setMutationLog(this);
+        flusher = new Thread(() -> {
+            try {
+                flushLoop();
+            } finally {
+                releaseWaiters(true);
+            }
+        }, "GraphWalFlusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Buffers a record for the mutation; called by CompactGraph under its write locks.
+     */
+    @Override
+    public synchronized void edgeChanged(boolean added, int follower, int followee) {
+        byte[] rec = new byte[RECORD_BYTES];
+        ByteBuffer buf = ByteBuffer.wrap(rec);
+        buf.put(added ? OP_ADD : OP_REMOVE).putInt(follower).putInt(followee);
+        CRC32 crc = new CRC32();
+        crc.update(rec, 0, 9);
+        buf.putInt((int) crc.getValue());
+        pending.write(rec, 0, RECORD_BYTES);
+        appendedSeq++;
+        notifyAll();
+    }
+
+    /**
+     * Returns a future completed by the flusher once every mutation logged so far
+     * is on disk, or once writing one of them failed. Already complete if the log
+     * is not running. Dependent actions should run asynchronously, so they do not
+     * hold up the flusher.
+     *
+     * @return a future completing with false if a write of the awaited mutations
+     *         failed, so they are not known to be durable
+     */
+    public synchronized CompletableFuture<Boolean> whenDurable() {
+        long target = appendedSeq;
+        if (flusher == null || durableSeq >= target) return CompletableFuture.completedFuture(true);
+        if (failedSeq >= target || flusherStopped) return CompletableFuture.completedFuture(false);
+        Waiter w = new Waiter(target);
+        waiters.add(w);
+        return w.done;
+    }
+
+    /**
+     * Completes the waiters whose records are durable or whose write failed; all
+     * remaining ones too, with false, when the flusher is stopping.
+     *
+     * @param stopping true once the flusher writes nothing more
+     */
+    private void releaseWaiters(boolean stopping) {
+        List<Waiter> durable = new ArrayList<>();
+        List<Waiter> failed = new ArrayList<>();
+        synchronized (this) {
+            if (stopping) flusherStopped = true;
+            Waiter w;
+            while ((w = waiters.peek()) != null) {
+                if (w.target <= durableSeq) {
+                    durable.add(waiters.poll());
+                } else if (w.target <= failedSeq || stopping) {
+                    failed.add(waiters.poll());
+                } else {
+                    break;
+                }
+            }
+        }
+        for (Waiter w : durable) w.done.complete(true);
+        for (Waiter w : failed) w.done.complete(false);
+    }
+
+    /**
+     * Flushes everything buffered and stops the flusher; used as a shutdown hook.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (flusher == null) return;
+            closing = true;
+            notifyAll();
+        }
+        try {
+            flusher.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Flusher loop: takes the whole pending buffer, writes it, forces it to disk,
+     * wakes the waiters, and compacts once the current file is large enough.
+     */
+    private void flushLoop() {
+        while (true) {
+            byte[] batch;
+            long batchSeq;
+            boolean last;
+            synchronized (this) {
+                while (pending.size() == 0 && !closing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending.toByteArray();
+                pending = new ByteArrayOutputStream();
+                batchSeq = appendedSeq;
+                last = closing;
+            }
+            if (batch.length > 0 && !writeBatch(batch)) {
+                synchronized (this) {
+                    // Keep the batch ahead of anything appended meanwhile and retry it
+                    ByteArrayOutputStream retry = new ByteArrayOutputStream();
+                    retry.write(batch, 0, batch.length);
+                    byte[] newer = pending.toByteArray();
+                    retry.write(newer, 0, newer.length);
+                    pending = retry;
+                    failedSeq = batchSeq;
+                }
+                releaseWaiters(last);
+                if (last) {
+                    System.out.println(Util.getTimestamp() + " GraphWal: Closing with "
+                            + batch.length / RECORD_BYTES + " records not written");
+                    closeChannel();
+                    return;
+                }
+                try {
+                    Thread.sleep(Constants.GRAPH_WAL_RETRY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            synchronized (this) {
+                durableSeq = batchSeq;
+            }
+            releaseWaiters(last);
+            if (last) {
+                closeChannel();
+                return;
+            }
+            if (recordsInFile >= Constants.GRAPH_WAL_COMPACT_RECORDS) {
+                try {
+                    openGeneration(generation + 1);
+                    compact();
+                } catch (IOException e) {
+                    System.out.println(Util.getTimestamp()
+                            + " GraphWal: Compaction failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a batch and forces it to disk. On failure the file is truncated
+     * back to where the batch started, so a retry does not follow a torn record.
+     *
+     * @param batch the encoded records
+     * @return true if the batch is durable
+     */
+    private boolean writeBatch(byte[] batch) {
+        long start = System.nanoTime();
+        long before = -1;
+        try {
+            before = channel.size();
+            ByteBuffer buf = ByteBuffer.wrap(batch);
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(false);
+            recordsInFile += batch.length / RECORD_BYTES;
+            recordsWritten.addAndGet(batch.length / RECORD_BYTES);
+            batches.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            writeFailures.incrementAndGet();
+            System.out.println(Util.getTimestamp()
+                    + " GraphWal: Error writing WAL, " + batch.length / RECORD_BYTES
+                    + " records not durable, retrying: " + e.getMessage());
+            if (before >= 0) {
+                try {
+                    channel.truncate(before);
+                } catch (IOException te) {
+                    System.out.println(Util.getTimestamp()
+                            + " GraphWal: Error truncating WAL: " + te.getMessage());
+                }
+            }
+            return false;
+        } finally {
+            syncLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Switches appends to a new WAL generation.
+     *
+     * @param g the generation to open
+     * @throws IOException if the file cannot be opened
+     */
+    private void openGeneration(long g) throws IOException {
+        closeChannel();
+        generation = g;
+        channel = FileChannel.open(walPath(g),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        recordsInFile = channel.size() / RECORD_BYTES;
+    }
+
+    /**
+     * Closes the current WAL channel, if open.
+     */
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp() + " GraphWal: Error closing WAL: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * Writes a snapshot of the graph that recovery combines with the current and
+     * later generations, then deletes the older generations. Every mutation in an
+     * older generation was applied before it was logged, so it is in the snapshot;
+     * mutations also present in the current generation replay to the same result.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void compact() throws IOException {
+        long start = System.currentTimeMillis();
+        Path file = snapshotPath();
+        Path tmp  = file.resolveSibling(file.getFileName() + ".tmp");
+        long edges = 0;
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(generation);
+            int rows = graph.rowCount();
+            out.writeInt(rows);
+            for (int u = 0; u < rows; u++) {
+                int[] row = graph.followingOf(u);
+                out.writeInt(row.length);
+                for (int v : row) out.writeInt(v);
+                edges += row.length;
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long g : walGenerations()) {
+            if (g < generation) Files.deleteIfExists(walPath(g));
+        }
+        compactions.incrementAndGet();
+        System.out.println(Util.getTimestamp() + " GraphWal: Compacted " + edges
+                + " edges into snapshot in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Reads the graph snapshot, if any.
+     *
+     * @return the snapshot, or null if there is no usable snapshot
+     * @throws IOException if the file cannot be read
+     */
+    private Snapshot loadSnapshot() throws IOException {
+        Path file = snapshotPath();
+        if (!Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                System.out.println(Util.getTimestamp()
+                        + " GraphWal: Ignoring graph snapshot with unknown format");
+                return null;
+            }
+            long firstGeneration = in.readLong();
+            int rows = in.readInt();
+            int[] followees = new int[1024];
+            int[] followers = new int[1024];
+            int count = 0;
+            for (int u = 0; u < rows; u++) {
+                int degree = in.readInt();
+                for (int i = 0; i < degree; i++) {
+                    if (count == followees.length) {
+                        followees = Arrays.copyOf(followees, count * 2);
+                        followers = Arrays.copyOf(followers, count * 2);
+                    }
+                    followers[count] = u;
+                    followees[count] = in.readInt();
+                    count++;
+                }
+            }
+            return new Snapshot(firstGeneration, CompactGraph.fromEdges(followees, followers, count));
+        }
+    }
+
+    /**
+     * Applies the records of one WAL file to the graph, stopping at the first torn
+     * or corrupt record.
+     *
+     * @param file the WAL file
+     * @return the number of records applied
+     */
+    private long replay(Path file) {
+        long applied = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] rec = new byte[RECORD_BYTES];
+            CRC32 crc = new CRC32();
+            while (true) {
+                try {
+                    in.readFully(rec);
+                } catch (EOFException e) {
+                    break;
+                }
+                ByteBuffer buf = ByteBuffer.wrap(rec);
+                byte op = buf.get();
+                int follower = buf.getInt();
+                int followee = buf.getInt();
+                crc.reset();
+                crc.update(rec, 0, 9);
+                if (buf.getInt() != (int) crc.getValue() || (op != OP_ADD && op != OP_REMOVE)) {
+                    System.out.println(Util.getTimestamp() + " GraphWal: Corrupt record in "
+                            + file.getFileName() + " after " + applied + " records, ignoring the rest");
+                    break;
+                }
+                if (op == OP_ADD) {
+                    graph.addEdge(follower, followee);
+                } else {
+                    graph.removeEdge(follower, followee);
+                }
+                applied++;
+            }
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " GraphWal: Error replaying " + file.getFileName() + ": " + e.getMessage());
+        }
+        return applied;
+    }
+
+    /**
+     * Lists the generations of the WAL files present, in ascending order.
+     */
+    private static List<Long> walGenerations() {
+        List<Long> result = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(
+                Paths.get(Constants.SERVER_DATA_DIR), "graph-*.wal")) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                try {
+                    result.add(Long.parseLong(name.substring(6, name.length() - 4)));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp() + " GraphWal: Error listing WAL files: " + e.getMessage());
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * Location of the WAL file of a generation.
+     */
+    private static Path walPath(long generation) {
+        return Paths.get(Constants.SERVER_DATA_DIR, "graph-" + generation + ".wal");
+    }
+
+    /**
+     * Location of the graph snapshot file.
+     */
+    private static Path snapshotPath() {
+        return Paths.get(Constants.SERVER_DATA_DIR, "graph.snapshot");
+    }
+
+    /**
+     * Prints recovery time, group commit batching and sync latency.
+     */
+    public void printReport() {
+        long b = batches.get();
+        System.out.println("=== Graph WAL Report ===");
+        System.out.printf("Last recovery: %d ms, %d WAL records replayed%n", recoveryMs, replayedRecords);
+        System.out.printf("Records: %d in %d batches (avg %.1f per fsync), compactions: %d, generation: %d%n",
+                recordsWritten.get(), b, b == 0 ? 0.0 : (double) recordsWritten.get() / b,
+                compactions.get(), generation);
+        System.out.println("Failed batch writes (retried): " + writeFailures.get());
+        System.out.println(syncLatency.summary());
+    }
+}
@@ -0,0 +1,109 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Records operation latencies and reports count, percentiles and maximum.
+ * Percentiles are computed over a fixed-size window of the most recent samples,
+ * so memory stays constant however many operations are recorded.
+ */
+public class LatencyTracker {
+    /** Default number of recent samples kept for percentile estimation. */
+    private static final int DEFAULT_WINDOW = 4096;
+
+    /** Name printed in reports. */
+    private final String name;
+
+    /** Ring buffer of the most recent samples, in nanoseconds. */
+    private final long[] samples;
+
+    /** Index in samples where the next sample is written. */
+    private int next = 0;
+
+    /** Total number of samples recorded. */
+    private long count = 0;
+
+    /** Largest sample ever recorded, in nanoseconds. */
+    private long max = 0;
+
+    /**
+     * Constructs a tracker with the default sample window.
+     *
+     * @param name the name printed in reports
+     */
+    public LatencyTracker(String name) {
+        this(name, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Constructs a tracker keeping the given number of recent samples.
+     *
+     * @param name   the name printed in reports
+     * @param window the number of recent samples used for percentiles
+     */
+    public LatencyTracker(String name, int window) {
+        this.name = name;
+        this.samples = new long[window];
+    }
+
+    /**
+     * Records one operation that started at the given System.nanoTime() value.
+     *
+     * @param startNanos the System.nanoTime() value taken when the operation began
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records one operation latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count++;
+        if (nanos > max) max = nanos;
+    }
+
+    /**
+     * Returns the number of samples recorded so far.
+     *
+     * @return the total sample count
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns a percentile over the recent sample window.
+     *
+     * @param percentile the percentile in (0, 100]
+     * @return the latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public synchronized long percentile(double percentile) {
+        int n = (int) Math.min(count, samples.length);
+        if (n == 0) return 0;
+        long[] sorted = Arrays.copyOf(samples, n);
+        Arrays.sort(sorted);
+        int idx = (int) Math.ceil(percentile / 100.0 * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, idx))];
+    }
+
+    /**
+     * Formats a one-line summary with count, p50, p99 and max in milliseconds.
+     *
+     * @return the summary line
+     */
+    public String summary() {
+        long p50 = percentile(50), p99 = percentile(99);
+        long n, mx;
+        synchronized (this) {
+            n = count;
+            mx = max;
+        }
+        return String.format("%s: n=%d p50=%.3f ms p99=%.3f ms max=%.3f ms",
+                name, n, p50 / 1e6, p99 / 1e6, mx / 1e6);
+    }
+}
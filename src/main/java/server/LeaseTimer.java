@@ -0,0 +1,235 @@
+package server;
+
+import common.Constants;
+import common.Util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton hashed timer wheel expiring lock leases, shared by all leases so a
+ * lease costs an object instead of a thread.
+ *<p>
+ * The wheel has LEASE_WHEEL_SLOTS slots, one per tick of LEASE_TICK_MS; a lease
+ * due further out than one turn waits a number of rounds in its slot. Only the
+ * wheel thread touches the slots: {@link #schedule} and {@link Lease#cancel}
+ * hand the lease over through lock-free queues that the thread drains at each
+ * tick, so both are O(1) for the caller. Renewing only moves the deadline; when
+ * the lease's slot comes up with a later deadline it is placed again instead of
+ * firing. Expiry tasks run on the wheel thread and must not block.
+ */
+public class LeaseTimer {
+    /** Singleton instance of LeaseTimer. */
+    private static LeaseTimer instance = null;
+
+    /** Lease is waiting to expire. */
+    private static final int ACTIVE = 0;
+    /** Lease was released before its deadline. */
+    private static final int CANCELLED = 1;
+    /** Lease reached its deadline and its task ran. */
+    private static final int EXPIRED = 2;
+
+    /**
+     * A scheduled lease, linked into the list of its wheel slot.
+     */
+    public final class Lease {
+        /** Task run when the lease expires. */
+        private final Runnable onExpiry;
+        /** Deadline in System.nanoTime() terms; guarded by this. */
+        private long deadline;
+        /** ACTIVE, CANCELLED or EXPIRED; guarded by this. */
+        private int state = ACTIVE;
+        /** Full wheel turns left before the lease is due (wheel thread only). */
+        private long rounds;
+        /** Slot the lease is linked into, or -1 (wheel thread only). */
+        private int slot = -1;
+        /** Neighbours in the slot list (wheel thread only). */
+        private Lease prev, next;
+
+        Lease(long deadline, Runnable onExpiry) {
+            this.deadline = deadline;
+            this.onExpiry = onExpiry;
+        }
+
+        /**
+         * Releases the lease so its expiry task never runs.
+         *
+         * @return true if the lease was still active
+         */
+        public boolean cancel() {
+            synchronized (this) {
+                if (state != ACTIVE) return false;
+                state = CANCELLED;
+            }
+            cancelled.incrementAndGet();
+            removals.add(this);
+            return true;
+        }
+
+        /**
+         * Pushes the deadline back to the given delay from now.
+         *
+         * @param delayMs new time to expiry in milliseconds
+         * @return true if the lease was still active and now expires later
+         */
+        public boolean renew(long delayMs) {
+            synchronized (this) {
+                if (state != ACTIVE) return false;
+                deadline = System.nanoTime() + delayMs * 1_000_000L;
+            }
+            renewed.incrementAndGet();
+            return true;
+        }
+    }
+
+    /** Slot lists; slots[i] heads the leases due in ticks congruent to i. */
+    private final Lease[] slots = new Lease[Constants.LEASE_WHEEL_SLOTS];
+    /** Tick length in nanoseconds. */
+    private final long tickNanos = Constants.LEASE_TICK_MS * 1_000_000L;
+    /** Time the wheel started, in System.nanoTime() terms. */
+    private final long startNanos = System.nanoTime();
+    /** Index of the next tick to process (wheel thread only). */
+    private long tick;
+
+    /** Leases scheduled but not yet placed in a slot. */
+    private final ConcurrentLinkedQueue<Lease> additions = new ConcurrentLinkedQueue<>();
+    /** Cancelled leases still to be unlinked from their slot. */
+    private final ConcurrentLinkedQueue<Lease> removals = new ConcurrentLinkedQueue<>();
+
+    /** Leases scheduled. */
+    private final AtomicLong scheduled = new AtomicLong();
+    /** Leases released before their deadline. */
+    private final AtomicLong cancelled = new AtomicLong();
+    /** Leases whose deadline was pushed back. */
+    private final AtomicLong renewed = new AtomicLong();
+    /** Leases that reached their deadline. */
+    private final AtomicLong expired = new AtomicLong();
+
+    /** Private constructor for singleton pattern; starts the wheel thread. */
+    private LeaseTimer() {
+        Thread wheel = new Thread(this::run, "LeaseTimer");
+        wheel.setDaemon(true);
+        wheel.start();
+    }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the LeaseTimer instance
+     */
+    public static LeaseTimer getInstance() {
+        if (instance == null) {
+            instance = new LeaseTimer();
+        }
+        return instance;
+    }
+
+    /**
+     * Schedules a lease expiring after the given delay.
+     *
+     * @param delayMs  time to expiry in milliseconds
+     * @param onExpiry task run on the wheel thread if the lease is neither
+     *                 cancelled nor renewed in time
+     * @return the lease
+     */
+    public Lease schedule(long delayMs, Runnable onExpiry) {
+        Lease lease = new Lease(System.nanoTime() + delayMs * 1_000_000L, onExpiry);
+        additions.add(lease);
+        scheduled.incrementAndGet();
+        return lease;
+    }
+
+    /**
+     * Wheel thread body: waits for each tick, applies queued cancellations
+     * and additions, then expires the due leases of the tick's slot.
+     */
+    private void run() {
+        while (true) {
+            long wait = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            Lease l;
+            while ((l = removals.poll()) != null) unlink(l);
+            while ((l = additions.poll()) != null) place(l);
+            expireSlot((int) (tick % slots.length));
+            tick++;
+        }
+    }
+
+    /**
+     * Links a lease into the slot of its deadline; a deadline already passed
+     * goes into the current tick's slot.
+     */
+    private void place(Lease l) {
+        long due;
+        synchronized (l) {
+            if (l.state != ACTIVE) return;
+            due = Math.max(tick, (l.deadline - startNanos + tickNanos - 1) / tickNanos - 1);
+        }
+        l.rounds = (due - tick) / slots.length;
+        l.slot = (int) (due % slots.length);
+        l.prev = null;
+        l.next = slots[l.slot];
+        if (l.next != null) l.next.prev = l;
+        slots[l.slot] = l;
+    }
+
+    /**
+     * Removes a lease from its slot list, if linked.
+     */
+    private void unlink(Lease l) {
+        if (l.slot < 0) return;
+        if (l.prev != null) l.prev.next = l.next; else slots[l.slot] = l.next;
+        if (l.next != null) l.next.prev = l.prev;
+        l.prev = l.next = null;
+        l.slot = -1;
+    }
+
+    /**
+     * Runs the expiry of every due lease in a slot; renewed leases are placed again.
+     */
+    private void expireSlot(int slot) {
+        long now = System.nanoTime();
+        Lease l = slots[slot];
+        while (l != null) {
+            Lease next = l.next;
+            if (l.rounds > 0) {
+                l.rounds--;
+            } else {
+                unlink(l);
+                boolean due;
+                synchronized (l) {
+                    due = l.state == ACTIVE && l.deadline <= now;
+                    if (due) l.state = EXPIRED;
+                }
+                if (due) {
+                    expired.incrementAndGet();
+                    try {
+                        l.onExpiry.run();
+                    } catch (RuntimeException e) {
+                        System.out.println(Util.getTimestamp() + " LeaseTimer: Expiry task failed: " + e);
+                    }
+                } else {
+                    // Renewed since it was placed (cancelled leases are skipped by place)
+                    place(l);
+                }
+            }
+            l = next;
+        }
+    }
+
+    /**
+     * Prints how many leases were released normally, renewed and timed out.
+     */
+    public void printReport() {
+        long s = scheduled.get(), c = cancelled.get(), x = expired.get();
+        System.out.println("=== Lock Lease Report ===");
+        System.out.println("Leases: " + s + ", released: " + c + ", timed out: " + x
+                + ", renewed: " + renewed.get() + ", outstanding: " + (s - c - x));
+    }
+}
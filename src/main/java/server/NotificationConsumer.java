@@ -0,0 +1,61 @@
+package server;
+
+/**
+ * EventBus consumer sending the notifications caused by domain events: upload
+ * notices to followers of push-mode accounts, follow acceptances, comments and
+ * reposts. Pull-mode uploads are announced when followers merge their feed.
+ */
+public class NotificationConsumer implements EventBus.Consumer {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String name() {
+        return "Notifications";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEvent(DomainEvent e, boolean endOfBatch) {
+        if (e instanceof DomainEvent.PhotoUploaded) {
+            DomainEvent.PhotoUploaded u = (DomainEvent.PhotoUploaded) e;
+            if (!u.pullMode) {
+                String notification = "User " + u.uploaderUsername + " uploaded " + u.photoTitle;
+                for (int fid : SocialGraphManager.getInstance().getFollowerSnapshot(u.uploaderId)) {
+                    notify(Integer.toString(fid), NotificationKind.UPLOAD, u.uploaderUsername, notification);
+                }
+            }
+        } else if (e instanceof DomainEvent.FollowAccepted) {
+            DomainEvent.FollowAccepted f = (DomainEvent.FollowAccepted) e;
+            notify(f.requesterId, NotificationKind.FOLLOW_RESPONSE,
+                    AuthenticationManager.getUsernameByNumericId(f.targetId), f.notification);
+        } else if (e instanceof DomainEvent.CommentAdded) {
+            DomainEvent.CommentAdded c = (DomainEvent.CommentAdded) e;
+            String commenter = AuthenticationManager.getUsernameByNumericId(c.commenterId);
+            notify(c.authorId, NotificationKind.COMMENT, commenter, c.notification);
+            for (int follower : SocialGraphManager.getInstance().getFollowerSnapshot(c.authorId)) {
+                String fid = Integer.toString(follower);
+                if (!fid.equals(c.commenterId)) notify(fid, NotificationKind.COMMENT, commenter, c.notification);
+            }
+        } else if (e instanceof DomainEvent.Reposted) {
+            DomainEvent.Reposted r = (DomainEvent.Reposted) e;
+            notify(r.authorId, NotificationKind.REPOST,
+                    AuthenticationManager.getUsernameByNumericId(r.reposterId), r.notification);
+        }
+    }
+
+    /**
+     * Hands a notification to the router, which delivers it live or stores it.
+     *
+     * @param recipientId  the numeric ID of the recipient
+     * @param kind         the kind of notification
+     * @param source       the username the notification comes from
+     * @param notification the notification text
+     */
+    private static void notify(String recipientId, NotificationKind kind, String source, String notification) {
+        NotificationRouter.getInstance().deliver(recipientId, kind, source, notification);
+    }
+}
@@ -0,0 +1,51 @@
+package server;
+
+/**
+ * Kinds of notification, with the priority used when a user's backlog is over
+ * its cap (lowest priority is evicted first) and, for kinds that are coalesced,
+ * the text of the digest replacing several notifications from one source.
+ */
+public enum NotificationKind {
+    /** Someone asked to follow the recipient; needs an answer, never coalesced. */
+    FOLLOW_REQUEST(4, null),
+    /** A follow request of the recipient was accepted or rejected. */
+    FOLLOW_RESPONSE(3, null),
+    /** A comment on the recipient's post or on a post of someone they follow. */
+    COMMENT(2, "User %s left %d new comments"),
+    /** The recipient's post was reposted. */
+    REPOST(2, "User %s reposted %d of your posts"),
+    /** Someone stopped following the recipient. */
+    UNFOLLOW(1, null),
+    /** A notification stored without a kind. */
+    OTHER(1, null),
+    /** Someone the recipient follows uploaded a photo. */
+    UPLOAD(0, "User %s uploaded %d photos");
+
+    /** Eviction priority; lower is evicted first. */
+    final int priority;
+    /** Digest format taking the source and the count, or null if not coalesced. */
+    private final String digestFormat;
+
+    NotificationKind(int priority, String digestFormat) {
+        this.priority = priority;
+        this.digestFormat = digestFormat;
+    }
+
+    /**
+     * @return true if notifications of this kind from one source are merged into a digest
+     */
+    boolean coalesces() {
+        return digestFormat != null;
+    }
+
+    /**
+     * Returns the digest text for several notifications from one source.
+     *
+     * @param source the username the notifications came from
+     * @param count  the number of notifications merged
+     * @return the digest text
+     */
+    String digest(String source, int count) {
+        return String.format(digestFormat, source, count);
+    }
+}
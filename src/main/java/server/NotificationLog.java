@@ -0,0 +1,634 @@
+package server;
+
+import common.Constants;
+import common.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Singleton disk-backed store of undelivered notifications, one log per user.
+ *<p>
+ * A user's log lives in ServerData/notifications/&lt;userId&gt;/ as append-only
+ * segment files named after the logical position of their first byte, plus a
+ * cursor file holding the position up to which notifications were delivered
+ * and, for replay that runs newest first, one delivered range past that position.
+ * Records are checksummed; a torn record left by a crash ends its segment.
+ * Appends and cursor updates are forced to disk before they return, and a new
+ * segment's directory entry is forced when the segment is created, so an
+ * acknowledged notification or acknowledgement survives a crash.
+ * Replay memory-maps the segments past the cursor and decodes them in place.
+ * A background thread deletes segments that lie wholly before the cursor, and
+ * the whole directory once everything in it was delivered. Positions then
+ * restart from zero in a new directory, so each directory carries an epoch and
+ * entries and acknowledgements name it: an acknowledgement for an older epoch
+ * is ignored rather than applied to new records at the same positions.
+ *<p>
+ * When a user's undelivered records span two segments' worth of bytes, the
+ * append that fills a segment first rewrites the backlog through the
+ * {@link Coalescer}: the condensed records are written to the new segment and
+ * the cursor moves past the old ones, which compaction then deletes. The
+ * backlog on disk therefore stays bounded by what the coalescer keeps.
+ *<p>
+ * Nothing is kept in memory per user: appends and reads go to disk under one of
+ * a fixed set of lock stripes, so heap use does not grow with the number of
+ * users who have notifications pending.
+ */
+public class NotificationLog {
+    /** Singleton instance of NotificationLog. */
+    private static NotificationLog instance = null;
+
+    /** Bytes before a record's text: text length, CRC32, timestamp. */
+    private static final int HEADER_BYTES = 16;
+    /** Number of lock stripes serializing access to user logs. */
+    private static final int STRIPES = 64;
+    /** Suffix of segment file names. */
+    private static final String SEGMENT_SUFFIX = ".seg";
+    /** Name of the cursor file in a user's directory. */
+    private static final String CURSOR_FILE = "cursor";
+    /** Name of the file holding the epoch of a user's directory. */
+    private static final String EPOCH_FILE = "epoch";
+
+    /**
+     * One decoded notification and the log positions it occupies.
+     */
+    public static final class Entry {
+        /** Epoch of the directory the record was read from; 0 if not read from the log. */
+        public final long epoch;
+        /** Position of the record's first byte. */
+        public final long start;
+        /** Time the notification was appended, in epoch milliseconds. */
+        public final long millis;
+        /** The stored notification text. */
+        public final String text;
+        /** Position following this record. */
+        public final long end;
+
+        Entry(long start, long millis, String text, long end) {
+            this(0, start, millis, text, end);
+        }
+
+        Entry(long epoch, long start, long millis, String text, long end) {
+            this.epoch = epoch;
+            this.start = start;
+            this.millis = millis;
+            this.text = text;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Delivery state of a user's log: everything before position is delivered,
+     * as is the range [ackedFrom, ackedTo) when it is not empty.
+     */
+    private static final class Cursor {
+        /** Position up to which every record was delivered. */
+        long position;
+        /** Start of the delivered range past position. */
+        long ackedFrom;
+        /** End of the delivered range past position; equal to ackedFrom when empty. */
+        long ackedTo;
+
+        /**
+         * @return true if the record in [start, end) was delivered
+         */
+        boolean delivered(long start, long end) {
+            return end <= position || (start >= ackedFrom && end <= ackedTo);
+        }
+    }
+
+    /**
+     * Condenses a user's undelivered records when their backlog is rewritten.
+     */
+    public interface Coalescer {
+        /**
+         * Returns the records to keep, in the order they should be delivered.
+         *
+         * @param undelivered the undelivered records, oldest first
+         * @return the records to write back; their end positions are ignored
+         */
+        List<Entry> coalesce(List<Entry> undelivered);
+    }
+
+    /** Directory holding one subdirectory per user. */
+    private final Path root;
+    /** Last epoch handed to a new user directory. */
+    private final AtomicLong lastEpoch = new AtomicLong();
+    /** Lock stripes; a user's log is guarded by stripes[hash % STRIPES]. */
+    private final Object[] stripes = new Object[STRIPES];
+    /** Policy applied when a backlog is rewritten, or null to never rewrite. */
+    private volatile Coalescer coalescer;
+    /** Users whose cursor moved since the last compaction pass. */
+    private final Set<String> compactionCandidates = ConcurrentHashMap.newKeySet();
+
+    /** Records appended. */
+    private final AtomicLong appends = new AtomicLong();
+    /** Bytes appended. */
+    private final AtomicLong bytesAppended = new AtomicLong();
+    /** Records decoded during replays. */
+    private final AtomicLong recordsReplayed = new AtomicLong();
+    /** Segment files created. */
+    private final AtomicLong segmentsCreated = new AtomicLong();
+    /** Segment files deleted by compaction. */
+    private final AtomicLong segmentsCompacted = new AtomicLong();
+    /** Backlogs rewritten through the coalescer. */
+    private final AtomicLong rewrites = new AtomicLong();
+    /** Undelivered bytes dropped by rewrites. */
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    /** Torn or corrupt records skipped. */
+    private final AtomicLong corruptRecords = new AtomicLong();
+    /** Time to read a user's undelivered notifications. */
+    private final LatencyTracker replayLatency = new LatencyTracker("Notification replay");
+
+    /** Private constructor for singleton pattern; starts the compaction thread. */
+    private NotificationLog() {
+        this(Paths.get(Constants.SERVER_DATA_DIR, "notifications"));
+    }
+
+    /**
+     * Creates a log stored under the given directory and starts its compaction thread.
+     *
+     * @param root directory holding one subdirectory per user
+     */
+    NotificationLog(Path root) {
+        this.root = root;
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp() + " NotificationLog: Cannot create " + root + ": " + e.getMessage());
+        }
+        Thread compactor = new Thread(this::compactLoop, "NotificationCompactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the NotificationLog instance
+     */
+    public static NotificationLog getInstance() {
+        if (instance == null) {
+            instance = new NotificationLog();
+        }
+        return instance;
+    }
+
+    /**
+     * Sets the policy used to rewrite large backlogs.
+     *
+     * @param coalescer the policy, or null to disable rewriting
+     */
+    public void setCoalescer(Coalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * Returns the lock stripe guarding a user's log.
+     */
+    private Object stripe(String userId) {
+        return stripes[Math.floorMod(userId.hashCode(), STRIPES)];
+    }
+
+    /**
+     * Appends a notification to a user's log, starting a new segment when the
+     * last one is full.
+     *
+     * @param userId the recipient's numeric ID
+     * @param millis the time of the notification, in epoch milliseconds
+     * @param text   the notification text
+     * @throws IOException if the record cannot be written
+     */
+    public void append(String userId, long millis, String text) throws IOException {
+        ByteBuffer record = encode(millis, text);
+        Path dir = root.resolve(userId);
+        synchronized (stripe(userId)) {
+            if (!Files.isDirectory(dir)) createUserDirectory(dir);
+            List<Long> bases = segmentBases(dir);
+            Path segment;
+            if (bases.isEmpty()) {
+                segment = segmentPath(dir, readCursor(dir).position);
+                createSegment(dir, segment);
+            } else {
+                long last = bases.get(bases.size() - 1);
+                segment = segmentPath(dir, last);
+                long size = Files.size(segment);
+                if (size >= Constants.NOTIFICATION_SEGMENT_BYTES) {
+                    long end = last + size;
+                    segment = segmentPath(dir, end);
+                    createSegment(dir, segment);
+                    Coalescer c = coalescer;
+                    if (c != null && end - readCursor(dir).position >= 2L * Constants.NOTIFICATION_SEGMENT_BYTES) {
+                        List<Entry> undelivered = readLocked(dir);
+                        rewrite(userId, dir, segment, end, undelivered, c.coalesce(undelivered));
+                    }
+                }
+            }
+            appendRecords(segment, record);
+        }
+        appends.incrementAndGet();
+        bytesAppended.addAndGet(record.capacity());
+    }
+
+    /**
+     * Creates a user's directory with a fresh epoch, greater than any handed out
+     * before in this process and than the current time in milliseconds, so it
+     * also differs from the epochs of directories deleted before a restart.
+     */
+    private void createUserDirectory(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        long epoch = lastEpoch.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+        writeDurably(dir.resolve(EPOCH_FILE), Long.toString(epoch));
+        forceDirectory(dir);
+        forceDirectory(root);
+    }
+
+    /**
+     * Creates an empty segment file and forces its directory entry to disk.
+     */
+    private void createSegment(Path dir, Path segment) throws IOException {
+        FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE).close();
+        forceDirectory(dir);
+        segmentsCreated.incrementAndGet();
+    }
+
+    /**
+     * Rewrites a user's backlog through the coalescer now, if that drops or
+     * merges anything, so every remaining record can be delivered and
+     * acknowledged on its own.
+     *
+     * @param userId the recipient's numeric ID
+     */
+    public void condense(String userId) {
+        Coalescer c = coalescer;
+        Path dir = root.resolve(userId);
+        if (c == null) return;
+        synchronized (stripe(userId)) {
+            if (!Files.isDirectory(dir)) return;
+            try {
+                List<Entry> undelivered = readLocked(dir);
+                List<Entry> kept = c.coalesce(undelivered);
+                if (kept.size() == undelivered.size()) return;
+                List<Long> bases = segmentBases(dir);
+                long end = bases.isEmpty() ? readCursor(dir).position
+                        : bases.get(bases.size() - 1) + Files.size(segmentPath(dir, bases.get(bases.size() - 1)));
+                Path segment = segmentPath(dir, end);
+                if (!Files.exists(segment)) createSegment(dir, segment);
+                rewrite(userId, dir, segment, end, undelivered, kept);
+            } catch (IOException e) {
+                System.out.println(Util.getTimestamp() + " NotificationLog: Error condensing notifications of "
+                        + userId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replaces a user's backlog by its coalesced form: the kept records are
+     * written to the segment starting at end, then the cursor is moved to end.
+     * A crash in between delivers the old records and the kept ones.
+     */
+    private void rewrite(String userId, Path dir, Path segment, long end,
+                         List<Entry> undelivered, List<Entry> kept) throws IOException {
+        long before = 0;
+        for (Entry e : undelivered) before += e.end - e.start;
+        ByteBuffer[] records = new ByteBuffer[kept.size()];
+        long written = 0;
+        for (int i = 0; i < records.length; i++) {
+            records[i] = encode(kept.get(i).millis, kept.get(i).text);
+            written += records[i].capacity();
+        }
+        appendRecords(segment, records);
+        Cursor cursor = new Cursor();
+        cursor.position = end;
+        writeCursor(dir, cursor);
+        compactionCandidates.add(userId);
+        rewrites.incrementAndGet();
+        bytesReclaimed.addAndGet(Math.max(0, before - written));
+    }
+
+    /**
+     * Appends encoded records to a segment file and forces them to disk.
+     */
+    private static void appendRecords(Path segment, ByteBuffer... records) throws IOException {
+        try (FileChannel ch = FileChannel.open(segment,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (ByteBuffer record : records) {
+                while (record.hasRemaining()) ch.write(record);
+            }
+            ch.force(false);
+        }
+    }
+
+    /**
+     * Encodes one record: text length, CRC32, timestamp, UTF-8 text.
+     */
+    private static ByteBuffer encode(long millis, String text) {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        record.putInt(body.length).putInt(checksum(millis, body)).putLong(millis).put(body).flip();
+        return record;
+    }
+
+    /**
+     * Reads every notification after a user's cursor, oldest first, by
+     * memory-mapping the segments that hold them.
+     *
+     * @param userId the recipient's numeric ID
+     * @return the undelivered notifications; empty if there are none
+     */
+    public List<Entry> readUndelivered(String userId) {
+        long start = System.nanoTime();
+        List<Entry> out = new ArrayList<>();
+        Path dir = root.resolve(userId);
+        synchronized (stripe(userId)) {
+            if (!Files.isDirectory(dir)) return out;
+            try {
+                out = readLocked(dir);
+            } catch (IOException e) {
+                System.out.println(Util.getTimestamp() + " NotificationLog: Error reading notifications of "
+                        + userId + ": " + e.getMessage());
+            }
+        }
+        recordsReplayed.addAndGet(out.size());
+        replayLatency.recordSince(start);
+        return out;
+    }
+
+    /**
+     * Decodes the records after the cursor of a user's directory; the caller
+     * holds the user's stripe.
+     */
+    private List<Entry> readLocked(Path dir) throws IOException {
+        List<Entry> out = new ArrayList<>();
+        Cursor cursor = readCursor(dir);
+        long epoch = readEpoch(dir);
+        List<Long> bases = segmentBases(dir);
+        for (int i = 0; i < bases.size(); i++) {
+            Path segment = segmentPath(dir, bases.get(i));
+            long size = Files.size(segment);
+            if (cursor.delivered(bases.get(i), bases.get(i) + size)) continue;
+            decode(segment, epoch, bases.get(i), size, cursor, i == bases.size() - 1, out);
+        }
+        return out;
+    }
+
+    /**
+     * Decodes the records of one mapped segment that were not delivered.
+     * A torn record at the end of the last segment is cut off so later appends
+     * follow the last good record; elsewhere it ends the segment.
+     */
+    private void decode(Path segment, long epoch, long base, long size, Cursor cursor, boolean last,
+                        List<Entry> out) throws IOException {
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int pos = 0;
+            while (pos < size) {
+                if (size - pos < HEADER_BYTES) break;
+                int length = buf.getInt(pos);
+                if (length < 0 || length > size - pos - HEADER_BYTES) break;
+                int crc = buf.getInt(pos + 4);
+                long millis = buf.getLong(pos + 8);
+                byte[] body = new byte[length];
+                buf.position(pos + HEADER_BYTES);
+                buf.get(body);
+                if (crc != checksum(millis, body)) break;
+                long start = base + pos;
+                pos += HEADER_BYTES + length;
+                if (!cursor.delivered(start, base + pos)) {
+                    out.add(new Entry(epoch, start, millis, new String(body, StandardCharsets.UTF_8), base + pos));
+                }
+            }
+            if (pos < size) {
+                corruptRecords.incrementAndGet();
+                System.out.println(Util.getTimestamp() + " NotificationLog: Torn record in " + segment
+                        + " at byte " + pos);
+                if (last) ch.truncate(pos);
+            }
+        }
+    }
+
+    /**
+     * Marks the records in [from, to) as delivered. A range reaching back to the
+     * cursor advances it; otherwise it is merged with the delivered range past
+     * the cursor if they touch. A range that cannot be recorded is ignored, so
+     * its records are delivered again later, as is a range from another epoch
+     * of the user's directory, whose positions name different records.
+     *
+     * @param userId the recipient's numeric ID
+     * @param epoch  the epoch of the entries the range was read from
+     * @param from   the start position of the oldest delivered record
+     * @param to     the end position of the newest delivered record
+     */
+    public void acknowledge(String userId, long epoch, long from, long to) {
+        Path dir = root.resolve(userId);
+        synchronized (stripe(userId)) {
+            if (!Files.isDirectory(dir)) return;
+            try {
+                if (readEpoch(dir) != epoch) {
+                    System.out.println(Util.getTimestamp() + " NotificationLog: Ignoring acknowledgement of "
+                            + userId + " for epoch " + epoch);
+                    return;
+                }
+                Cursor c = readCursor(dir);
+                if (from <= c.position) {
+                    if (to <= c.position) return;
+                    c.position = to;
+                } else if (c.ackedFrom == c.ackedTo) {
+                    c.ackedFrom = from;
+                    c.ackedTo = to;
+                } else if (from <= c.ackedTo && to >= c.ackedFrom) {
+                    c.ackedFrom = Math.min(c.ackedFrom, from);
+                    c.ackedTo = Math.max(c.ackedTo, to);
+                } else {
+                    return;
+                }
+                if (c.ackedFrom != c.ackedTo && c.ackedFrom <= c.position) {
+                    c.position = Math.max(c.position, c.ackedTo);
+                    c.ackedFrom = c.ackedTo = 0;
+                }
+                writeCursor(dir, c);
+            } catch (IOException e) {
+                System.out.println(Util.getTimestamp() + " NotificationLog: Error saving cursor of "
+                        + userId + ": " + e.getMessage());
+                return;
+            }
+        }
+        compactionCandidates.add(userId);
+    }
+
+    /**
+     * Compaction thread body: periodically compacts the logs whose cursor moved.
+     */
+    private void compactLoop() {
+        while (true) {
+            try {
+                Thread.sleep(Constants.NOTIFICATION_COMPACT_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (String userId : compactionCandidates) {
+                compactionCandidates.remove(userId);
+                compact(userId);
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments of a user that were fully delivered, and the user's
+     * directory if nothing undelivered remains, so positions restart from zero.
+     *
+     * @param userId the recipient's numeric ID
+     */
+    void compact(String userId) {
+        Path dir = root.resolve(userId);
+        synchronized (stripe(userId)) {
+            if (!Files.isDirectory(dir)) return;
+            try {
+                long cursor = readCursor(dir).position;
+                List<Long> bases = segmentBases(dir);
+                int kept = 0;
+                for (long base : bases) {
+                    Path segment = segmentPath(dir, base);
+                    if (base + Files.size(segment) <= cursor) {
+                        Files.delete(segment);
+                        segmentsCompacted.incrementAndGet();
+                    } else {
+                        kept++;
+                    }
+                }
+                if (kept == 0) {
+                    Files.deleteIfExists(dir.resolve(CURSOR_FILE));
+                    Files.deleteIfExists(dir.resolve(EPOCH_FILE));
+                    Files.delete(dir);
+                }
+            } catch (IOException e) {
+                System.out.println(Util.getTimestamp() + " NotificationLog: Error compacting notifications of "
+                        + userId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the delivery state stored in a user's directory: the delivered
+     * position, optionally followed by a delivered range; all zero if none.
+     */
+    private static Cursor readCursor(Path dir) throws IOException {
+        Cursor c = new Cursor();
+        Path file = dir.resolve(CURSOR_FILE);
+        if (!Files.exists(file)) return c;
+        String[] parts = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().split(" ");
+        c.position = Long.parseLong(parts[0]);
+        if (parts.length == 3) {
+            c.ackedFrom = Long.parseLong(parts[1]);
+            c.ackedTo = Long.parseLong(parts[2]);
+        }
+        return c;
+    }
+
+    /**
+     * Replaces the cursor file of a user's directory atomically and durably.
+     */
+    private static void writeCursor(Path dir, Cursor c) throws IOException {
+        String text = c.ackedFrom == c.ackedTo ? Long.toString(c.position)
+                : c.position + " " + c.ackedFrom + " " + c.ackedTo;
+        Path tmp = dir.resolve(CURSOR_FILE + ".tmp");
+        writeDurably(tmp, text);
+        Files.move(tmp, dir.resolve(CURSOR_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(dir);
+    }
+
+    /**
+     * Returns the epoch of a user's directory; 0 for a directory created before
+     * epochs were recorded.
+     */
+    private static long readEpoch(Path dir) throws IOException {
+        Path file = dir.resolve(EPOCH_FILE);
+        if (!Files.exists(file)) return 0;
+        return Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Writes a small text file and forces it to disk.
+     */
+    private static void writeDurably(Path file, String text) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(false);
+        }
+    }
+
+    /**
+     * Forces a directory's entries to disk, where the platform allows it.
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException ignored) {
+            // Some platforms cannot open or sync a directory
+        }
+    }
+
+    /**
+     * Returns the base positions of a user's segments in ascending order.
+     */
+    private static List<Long> segmentBases(Path dir) throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(SEGMENT_SUFFIX))
+                    .forEach(n -> bases.add(Long.parseLong(n.substring(0, n.length() - SEGMENT_SUFFIX.length()))));
+        }
+        bases.sort(null);
+        return bases;
+    }
+
+    /**
+     * Returns the path of the segment starting at a position.
+     */
+    private static Path segmentPath(Path dir, long base) {
+        return dir.resolve(String.format("%020d", base) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Returns the CRC32 of a record's timestamp and text, as an int.
+     */
+    private static int checksum(long millis, byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(millis).array());
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Prints append, replay and compaction counters and the number of users
+     * with a log on disk.
+     */
+    public void printReport() {
+        long users = 0;
+        try (Stream<Path> dirs = Files.list(root)) {
+            users = dirs.count();
+        } catch (IOException ignored) { }
+        System.out.println("=== Notification Log Report ===");
+        System.out.println("Users with logs: " + users + ", appended: " + appends.get()
+                + " (" + bytesAppended.get() + " bytes), replayed: " + recordsReplayed.get());
+        System.out.println("Segments created: " + segmentsCreated.get() + ", compacted: "
+                + segmentsCompacted.get() + ", torn records: " + corruptRecords.get());
+        System.out.println("Backlog rewrites: " + rewrites.get() + ", bytes reclaimed: " + bytesReclaimed.get());
+        System.out.println(replayLatency.summary());
+    }
+}
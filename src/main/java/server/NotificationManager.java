@@ -1,28 +1,127 @@
 package server;
 
+import common.Constants;
 import common.Util;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.List;
-import java.util.ArrayList;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Centralized manager for queuing, retrieving, and removing notifications
- * for clients, ensuring thread-safe operations and timestamped messages.
+ * Offline store of notifications for clients who could not receive them live,
+ * ensuring thread-safe operations and timestamped messages. Live delivery is
+ * decided by {@link NotificationRouter}; the notifications themselves are kept
+ * on disk by {@link NotificationLog} so they survive restarts.
+ *<p>
+ * Stored notifications carry their kind and source so a backlog can be
+ * condensed: notifications older than the TTL are dropped, notifications of a
+ * coalescing kind from the same source are merged into one digest, and if more
+ * than the per-user cap remain, the lowest-priority oldest ones are evicted.
+ * This runs when a user logs in and whenever the log rewrites a large backlog.
+ *<p>
+ * Replay is paged newest first. Each page carries the log range it covers and
+ * stays stored until the client acknowledges that range, so a client that
+ * disconnects mid-replay sees the rest on its next login.
  */
 public class NotificationManager {
     /** Singleton instance of NotificationManager. */
     private static NotificationManager instance = null;
 
+    /** Separates kind, source, count and text in a stored record. */
+    private static final char SEP = '\u001F';
+
     /**
-     * Mapping from recipient client ID to a list of timestamped notifications.
+     * A stored notification decoded into its parts.
      */
-    private ConcurrentHashMap<String, List<String>> notifications;
+    private static final class Stored {
+        /** Kind of the notification. */
+        final NotificationKind kind;
+        /** Username the notification came from; empty if unknown. */
+        final String source;
+        /** Number of notifications this record stands for. */
+        final int count;
+        /** Timestamped text shown to the recipient. */
+        final String text;
+        /** Time of the (latest) notification, in epoch milliseconds. */
+        final long millis;
+
+        Stored(NotificationKind kind, String source, int count, String text, long millis) {
+            this.kind = kind;
+            this.source = source;
+            this.count = count;
+            this.text = text;
+            this.millis = millis;
+        }
+
+        /**
+         * Decodes a log entry; entries without kind information become OTHER.
+         */
+        static Stored of(NotificationLog.Entry e) {
+            String[] parts = e.text.split(String.valueOf(SEP), 4);
+            if (parts.length == 4) {
+                try {
+                    return new Stored(NotificationKind.valueOf(parts[0]), parts[1],
+                            Integer.parseInt(parts[2]), parts[3], e.millis);
+                } catch (IllegalArgumentException ignored) { }
+            }
+            return new Stored(NotificationKind.OTHER, "", 1, e.text, e.millis);
+        }
+
+        /**
+         * Encodes this notification as a log entry.
+         */
+        NotificationLog.Entry toEntry() {
+            return new NotificationLog.Entry(0, millis,
+                    kind.name() + SEP + source + SEP + count + SEP + text, 0);
+        }
+    }
 
     /**
-     * Private constructor to initialize the notifications map.
+     * One page of stored notifications, newest first.
+     */
+    public static final class Page {
+        /** Timestamped notification texts, newest first. */
+        public final List<String> notifications;
+        /** Epoch of the log the page was read from. */
+        public final long epoch;
+        /** Start position of the oldest notification on the page. */
+        public final long from;
+        /** End position of the newest notification on the page. */
+        public final long to;
+        /** Number of older notifications not on this page. */
+        public final int remaining;
+
+        Page(List<String> notifications, long epoch, long from, long to, int remaining) {
+            this.notifications = notifications;
+            this.epoch = epoch;
+            this.from = from;
+            this.to = to;
+            this.remaining = remaining;
+        }
+
+        /**
+         * Returns the acknowledgement token naming this page's log epoch and range.
+         *
+         * @return the token "epoch-from-to"
+         */
+        public String ackToken() {
+            return epoch + "-" + from + "-" + to;
+        }
+    }
+
+    /** Notifications merged into digests. */
+    private final AtomicLong coalesced = new AtomicLong();
+    /** Notifications dropped because they outlived the TTL. */
+    private final AtomicLong expired = new AtomicLong();
+    /** Notifications evicted because a backlog exceeded its cap. */
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * Private constructor for singleton pattern; installs the backlog policy
+     * in the notification log.
      */
     private NotificationManager() {
-        notifications = new ConcurrentHashMap<>();
+        NotificationLog.getInstance().setCoalescer(this::condense);
     }
 
     /**
@@ -42,49 +141,130 @@ public class NotificationManager {
      * Each message is prefixed with a timestamp.
      *
      * @param recipientId the numeric client ID of the notification recipient
+     * @param kind        the kind of notification
+     * @param source      the username the notification comes from
      * @param message     the notification text to queue
      */
-    public void addNotification(String recipientId, String message) {
-        notifications.putIfAbsent(recipientId, new ArrayList<>());
-        List<String> list = notifications.get(recipientId);
-        synchronized (list) {
-            list.add("[" + Util.getTimestamp() + "] " + message);
+    public void addNotification(String recipientId, NotificationKind kind, String source, String message) {
+        long now = System.currentTimeMillis();
+        Stored s = new Stored(kind, source == null ? "" : source, 1,
+                "[" + Util.getTimestamp(now) + "] " + message, now);
+        try {
+            NotificationLog.Entry e = s.toEntry();
+            NotificationLog.getInstance().append(recipientId, e.millis, e.text);
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp() + " NotificationManager: Error storing notification for "
+                    + recipientId + ": " + e.getMessage());
         }
     }
 
     /**
-     * Retrieves and clears all queued notifications for a given recipient.
+     * Condenses a recipient's backlog and returns its newest page; used on login.
      *
-     * @param recipientId the numeric client ID whose notifications to retrieve
-     * @return a list of timestamped notification messages; empty if none
+     * @param recipientId the numeric client ID whose notifications to replay
+     * @return the newest page, or null if nothing is stored
      */
-    public List<String> getNotifications(String recipientId) {
-        List<String> msgs = notifications.get(recipientId);
-        if (msgs == null) {
-            return new ArrayList<>();
-        }
-        synchronized (msgs) {
-            List<String> copy = new ArrayList<>(msgs);
-            msgs.clear();
-            return copy;
+    public Page firstPage(String recipientId) {
+        NotificationLog.getInstance().condense(recipientId);
+        return nextPage(recipientId);
+    }
+
+    /**
+     * Returns the newest page of notifications not acknowledged yet.
+     *
+     * @param recipientId the numeric client ID whose notifications to replay
+     * @return the page, or null if nothing unacknowledged is stored
+     */
+    public Page nextPage(String recipientId) {
+        List<NotificationLog.Entry> entries = NotificationLog.getInstance().readUndelivered(recipientId);
+        if (entries.isEmpty()) return null;
+        int first = Math.max(0, entries.size() - Constants.NOTIFICATION_PAGE_SIZE);
+        List<String> texts = new ArrayList<>(entries.size() - first);
+        for (int i = entries.size() - 1; i >= first; i--) texts.add(Stored.of(entries.get(i)).text);
+        return new Page(texts, entries.get(first).epoch, entries.get(first).start,
+                entries.get(entries.size() - 1).end, first);
+    }
+
+    /**
+     * Marks a page as delivered, given the token the client echoed back.
+     *
+     * @param recipientId the numeric client ID acknowledging
+     * @param token       the page's token "epoch-from-to"
+     */
+    public void acknowledge(String recipientId, String token) {
+        String[] range = token.split("-");
+        try {
+            NotificationLog.getInstance().acknowledge(recipientId, Long.parseLong(range[0]),
+                    Long.parseLong(range[1]), Long.parseLong(range[2]));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println(Util.getTimestamp() + " NotificationManager: Bad acknowledgement '"
+                    + token + "' from " + recipientId);
         }
     }
 
     /**
-     * Removes a specific queued notification for a recipient so it will not be
-     * re-sent on subsequent logins. Matches entries that end with the given text.
+     * Applies the backlog policy: drops expired notifications, merges each
+     * source's notifications of a coalescing kind into one digest placed at the
+     * latest of them, and evicts the lowest-priority oldest notifications
+     * beyond the per-user cap.
      *
-     * @param recipientId the numeric client ID whose notification to remove
-     * @param message     the exact message text to remove (without timestamp)
+     * @param entries undelivered log entries, oldest first
+     * @return the entries to keep, oldest first
      */
-    public void removeNotification(String recipientId, String message) {
-        List<String> msgs = notifications.get(recipientId);
-        if (msgs == null) return;
-        synchronized (msgs) {
-            msgs.removeIf(m -> m.endsWith(message));
-            if (msgs.isEmpty()) {
-                notifications.remove(recipientId);
+    List<NotificationLog.Entry> condense(List<NotificationLog.Entry> entries) {
+        long cutoff = System.currentTimeMillis() - Constants.NOTIFICATION_TTL_MS;
+
+        // 1) TTL, then group coalescing kinds by (kind, source)
+        List<Stored> kept = new ArrayList<>();
+        Map<String, List<Stored>> groups = new LinkedHashMap<>();
+        for (NotificationLog.Entry e : entries) {
+            Stored s = Stored.of(e);
+            if (s.millis < cutoff) {
+                expired.addAndGet(s.count);
+            } else if (s.kind.coalesces()) {
+                groups.computeIfAbsent(s.kind.name() + SEP + s.source, k -> new ArrayList<>()).add(s);
+            } else {
+                kept.add(s);
             }
         }
+
+        // 2) One digest per group of more than one
+        for (List<Stored> group : groups.values()) {
+            if (group.size() == 1) {
+                kept.add(group.get(0));
+                continue;
+            }
+            Stored latest = group.get(group.size() - 1);
+            int total = 0;
+            for (Stored s : group) total += s.count;
+            kept.add(new Stored(latest.kind, latest.source, total, "[" + Util.getTimestamp(latest.millis) + "] "
+                    + latest.kind.digest(latest.source, total), latest.millis));
+            coalesced.addAndGet(group.size() - 1);
+        }
+        kept.sort(Comparator.comparingLong(s -> s.millis));
+
+        // 3) Cap: evict lowest priority first, oldest first within a priority
+        int excess = kept.size() - Constants.NOTIFICATION_USER_CAP;
+        if (excess > 0) {
+            List<Stored> victims = new ArrayList<>(kept);
+            victims.sort(Comparator.<Stored>comparingInt(s -> s.kind.priority).thenComparingLong(s -> s.millis));
+            Set<Stored> evict = Collections.newSetFromMap(new IdentityHashMap<>());
+            evict.addAll(victims.subList(0, excess));
+            kept.removeIf(evict::contains);
+            for (Stored s : evict) evicted.addAndGet(s.count);
+        }
+
+        List<NotificationLog.Entry> out = new ArrayList<>(kept.size());
+        for (Stored s : kept) out.add(s.toEntry());
+        return out;
+    }
+
+    /**
+     * Prints how many notifications were merged, expired and evicted.
+     */
+    public void printReport() {
+        System.out.println("=== Notification Backlog Report ===");
+        System.out.println("Coalesced: " + coalesced.get() + ", expired: " + expired.get()
+                + ", evicted over cap: " + evicted.get());
     }
 }
@@ -0,0 +1,107 @@
+package server;
+
+import common.Message;
+import common.Message.MessageType;
+import common.Util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton routing notifications to their recipients.
+ *<p>
+ * Presence is checked first: if the recipient is connected, the message goes
+ * straight onto their handler's outbound queue and the offline store is not
+ * touched. The queue acknowledges each message once it has been written and
+ * flushed to the socket; only if that fails (the connection dropped before or
+ * while writing) is the notification stored in {@link NotificationManager}.
+ * Recipients who are not connected get the notification stored directly.
+ */
+public class NotificationRouter {
+    /** Singleton instance of NotificationRouter. */
+    private static NotificationRouter instance = null;
+
+    /** Notifications written to an online recipient's connection. */
+    private final AtomicLong deliveredLive = new AtomicLong();
+    /** Notifications stored because the recipient was offline. */
+    private final AtomicLong storedOffline = new AtomicLong();
+    /** Notifications stored because live delivery failed. */
+    private final AtomicLong storedAfterFailure = new AtomicLong();
+    /** Time from routing to the flush acknowledgement of live deliveries. */
+    private final LatencyTracker liveLatency = new LatencyTracker("Notification live delivery");
+
+    /** Private constructor for singleton pattern. */
+    private NotificationRouter() { }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the NotificationRouter instance
+     */
+    public static NotificationRouter getInstance() {
+        if (instance == null) {
+            instance = new NotificationRouter();
+        }
+        return instance;
+    }
+
+    /**
+     * Delivers a notification as a DIAGNOSTIC message.
+     *
+     * @param recipientId  the numeric ID of the recipient
+     * @param kind         the kind of notification
+     * @param source       the username the notification comes from
+     * @param notification the notification text
+     * @return completes with true if it was delivered live, false if it was stored
+     */
+    public CompletableFuture<Boolean> deliver(String recipientId, NotificationKind kind, String source,
+                                              String notification) {
+        return deliver(recipientId, new Message(MessageType.DIAGNOSTIC, "Server", notification),
+                kind, source, notification);
+    }
+
+    /**
+     * Delivers a message to an online recipient, or stores its offline text
+     * for the next login.
+     *
+     * @param recipientId the numeric ID of the recipient
+     * @param live        the message sent if the recipient is online
+     * @param kind        the kind of notification
+     * @param source      the username the notification comes from
+     * @param offlineText the notification stored if they are not, or delivery fails
+     * @return completes with true if it was delivered live, false if it was stored
+     */
+    public CompletableFuture<Boolean> deliver(String recipientId, Message live, NotificationKind kind,
+                                              String source, String offlineText) {
+        ClientHandler h = ClientHandler.activeClients.get(recipientId);
+        if (h == null) {
+            NotificationManager.getInstance().addNotification(recipientId, kind, source, offlineText);
+            storedOffline.incrementAndGet();
+            return CompletableFuture.completedFuture(false);
+        }
+        long start = System.nanoTime();
+        return h.enqueue(live).thenApply(written -> {
+            if (written) {
+                deliveredLive.incrementAndGet();
+                liveLatency.recordSince(start);
+            } else {
+                NotificationManager.getInstance().addNotification(recipientId, kind, source, offlineText);
+                storedAfterFailure.incrementAndGet();
+                System.out.println(Util.getTimestamp() + " NotificationRouter: Live delivery to "
+                        + recipientId + " failed; notification stored");
+            }
+            return written;
+        });
+    }
+
+    /**
+     * Prints live versus stored delivery counts and live delivery latency.
+     */
+    public void printReport() {
+        System.out.println("=== Notification Routing Report ===");
+        System.out.println("Delivered live: " + deliveredLive.get()
+                + ", stored (offline): " + storedOffline.get()
+                + ", stored (delivery failed): " + storedAfterFailure.get());
+        System.out.println(liveLatency.summary());
+    }
+}
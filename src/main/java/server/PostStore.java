@@ -0,0 +1,573 @@
+package server;
+
+import common.Constants;
+import common.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton indexed store of the posts and comments of each profile.
+ *<p>
+ * A user's posts live in ServerData/posts/&lt;userId&gt;/ as two files. The
+ * records file is append-only: each post or comment is one record holding its
+ * post ID, the offset of the previous comment on the same post (or -1) and the
+ * profile line as shown to viewers. The index file has one fixed-size slot per
+ * post ID, holding the offset of the post record and of its latest comment, so
+ * a post is found with one seek and its comments by following the chain
+ * backwards from the slot. Rendering a profile reads the index and exactly the
+ * records it shows, and the Profile_ text files no longer need to be scanned.
+ *<p>
+ * The Profile_ files are still written for client sync; a profile that only
+ * has such a file is imported into the store the first time it is touched.
+ * Writes are made under the profile lock; the store's own lock stripes only keep
+ * appends and imports of one user apart from concurrent reads.
+ *<p>
+ * Post IDs are handed out by the store. The index has a slot for every ID used,
+ * so a user's next ID is the index length: it is recovered at startup without
+ * reading any post, and a post record is flushed before its slot is written.
+ * Comment records are flushed before the slot points at them too; a record
+ * torn by a crash before that fix is skipped when read and cut off on the
+ * next comment on its post.
+ */
+public class PostStore {
+    /** Singleton instance of PostStore. */
+    private static PostStore instance = null;
+
+    /** Bytes before a record's line: line length, kind, post ID, previous comment offset. */
+    private static final int HEADER_BYTES = 17;
+    /** Bytes per index slot: post record offset, latest comment offset. */
+    private static final int SLOT_BYTES = 16;
+    /** Record kind of a post. */
+    private static final byte POST = 'P';
+    /** Record kind of a comment. */
+    private static final byte COMMENT = 'C';
+    /** Number of lock stripes serializing access to user stores. */
+    private static final int STRIPES = 64;
+    /** Name of the records file in a user's directory. */
+    private static final String RECORDS_FILE = "records.dat";
+    /** Name of the index file in a user's directory. */
+    private static final String INDEX_FILE = "index.dat";
+
+    /**
+     * A post and its comments, oldest comment first.
+     */
+    public static final class Post {
+        /** The post ID. */
+        public final int postId;
+        /** The post's profile line. */
+        public final String line;
+        /** The profile lines of its comments, oldest first. */
+        public final List<String> comments;
+
+        Post(int postId, String line, List<String> comments) {
+            this.postId = postId;
+            this.line = line;
+            this.comments = comments;
+        }
+    }
+
+    /** Directory holding one subdirectory per user. */
+    private final Path root = Paths.get(Constants.SERVER_DATA_DIR, "posts");
+    /** Lock stripes; a user's store is guarded by stripes[hash % STRIPES]. */
+    private final Object[] stripes = new Object[STRIPES];
+    /** User ID → next post ID to hand out. */
+    private final ConcurrentHashMap<String, AtomicInteger> nextIds = new ConcurrentHashMap<>();
+
+    /** Posts appended. */
+    private final AtomicLong postsAppended = new AtomicLong();
+    /** Comments appended. */
+    private final AtomicLong commentsAppended = new AtomicLong();
+    /** Single-post lookups by ID. */
+    private final AtomicLong lookups = new AtomicLong();
+    /** Profiles rendered from the store. */
+    private final AtomicLong profileReads = new AtomicLong();
+    /** Record bytes read by lookups and renders. */
+    private final AtomicLong bytesRead = new AtomicLong();
+    /** Torn tails cut off: index slots dropped at recovery, and comment records cut short by a crash. */
+    private final AtomicLong tailsRepaired = new AtomicLong();
+    /** Profiles imported from their Profile_ file. */
+    private final AtomicLong imports = new AtomicLong();
+    /** Time to read a whole profile from the store. */
+    private final LatencyTracker renderLatency = new LatencyTracker("Profile read");
+
+    /** Private constructor for singleton pattern. */
+    private PostStore() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+    }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the PostStore instance
+     */
+    public static PostStore getInstance() {
+        if (instance == null) {
+            instance = new PostStore();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the lock guarding a user's store.
+     */
+    private Object stripe(String userId) {
+        return stripes[Math.floorMod(userId.hashCode(), STRIPES)];
+    }
+
+    /**
+     * Recovers the post ID counters of every user with a store; called once at
+     * startup. A user's next ID is one past the last index slot, so only the
+     * index length and its last slot are read, whatever the number of posts.
+     * A last slot left by an interrupted write is dropped.
+     */
+    public void recover() {
+        long start = System.nanoTime();
+        if (!Files.isDirectory(root)) return;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(root)) {
+            for (Path dir : ds) {
+                String userId = dir.getFileName().toString();
+                synchronized (stripe(userId)) {
+                    try {
+                        nextIds.put(userId, new AtomicInteger(repairTail(dir) + 1));
+                    } catch (IOException e) {
+                        report("recovering " + userId, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            report("listing " + root, e);
+        }
+        System.out.println(Util.getTimestamp() + " PostStore: Recovered post counters of " + nextIds.size()
+                + " users in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Imports a user's Profile_ file into the store if that has not happened
+     * yet. Call it before appending a line to the Profile_ file, or the import
+     * would pick up the new line and the following append would add it again.
+     *
+     * @param userId the numeric ID of the profile owner
+     */
+    public void prepare(String userId) {
+        synchronized (stripe(userId)) {
+            open(userId);
+        }
+    }
+
+    /**
+     * Hands out the next post ID of a user. Counters start from the index, so
+     * IDs keep increasing across restarts; the caller holds the profile lock.
+     *
+     * @param userId the numeric ID of the profile owner
+     * @return the post ID to use for the user's new post
+     */
+    public int reservePostId(String userId) {
+        AtomicInteger counter = nextIds.get(userId);
+        if (counter == null) {
+            // Not recovered at startup: a new user or a profile not imported yet
+            int next;
+            synchronized (stripe(userId)) {
+                Path dir = open(userId);
+                try {
+                    next = (int) (size(dir.resolve(INDEX_FILE)) / SLOT_BYTES) + 1;
+                } catch (IOException e) {
+                    report("reading index of " + userId, e);
+                    next = 1;
+                }
+            }
+            nextIds.putIfAbsent(userId, new AtomicInteger(next));
+            counter = nextIds.get(userId);
+        }
+        return counter.getAndIncrement();
+    }
+
+    /**
+     * Drops a torn or dangling tail from a user's index: a partial slot, or a
+     * last slot whose post record is not complete in the records file.
+     *
+     * @return the number of slots left
+     */
+    private int repairTail(Path dir) throws IOException {
+        Path indexFile = dir.resolve(INDEX_FILE);
+        if (!Files.exists(indexFile)) return 0;
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long recordsSize = size(dir.resolve(RECORDS_FILE));
+            long slots = index.size() / SLOT_BYTES;
+            while (slots > 0) {
+                long postOffset = readSlot(index, (int) slots)[0];
+                if (postOffset >= 0 && postOffset + HEADER_BYTES <= recordsSize) {
+                    ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+                    try (FileChannel records = FileChannel.open(dir.resolve(RECORDS_FILE), StandardOpenOption.READ)) {
+                        readFully(records, length, postOffset);
+                    }
+                    if (postOffset + HEADER_BYTES + length.flip().getInt() <= recordsSize) break;
+                }
+                slots--;
+                tailsRepaired.incrementAndGet();
+            }
+            if (index.size() != slots * SLOT_BYTES) index.truncate(slots * SLOT_BYTES);
+            return (int) slots;
+        }
+    }
+
+    /**
+     * Appends a post under the given ID.
+     *
+     * @param userId the numeric ID of the profile owner
+     * @param postId the post ID
+     * @param line   the post's profile line
+     * @return false if the post could not be written
+     */
+    public boolean appendPost(String userId, int postId, String line) {
+        synchronized (stripe(userId)) {
+            Path dir = open(userId);
+            try {
+                writePost(dir, postId, line);
+                return true;
+            } catch (IOException e) {
+                report("appending post " + postId + " of " + userId, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Appends a comment to a post.
+     *
+     * @param userId the numeric ID of the profile owner
+     * @param postId the post ID commented on
+     * @param line   the comment's profile line
+     * @return false if the post does not exist
+     */
+    public boolean appendComment(String userId, int postId, String line) {
+        synchronized (stripe(userId)) {
+            Path dir = open(userId);
+            try {
+                return writeComment(dir, postId, line);
+            } catch (IOException e) {
+                report("appending comment on post " + postId + " of " + userId, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reads one post's profile line.
+     *
+     * @param userId the numeric ID of the profile owner
+     * @param postId the post ID
+     * @return the post's line, or null if there is no such post
+     */
+    public String readPost(String userId, int postId) {
+        lookups.incrementAndGet();
+        synchronized (stripe(userId)) {
+            Path dir = open(userId);
+            try (FileChannel index = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.READ);
+                 FileChannel records = FileChannel.open(dir.resolve(RECORDS_FILE), StandardOpenOption.READ)) {
+                long[] slot = readSlot(index, postId);
+                Record post = slot == null || slot[0] < 0 ? null : readRecord(records, slot[0]);
+                return post == null ? null : post.line;
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                report("reading post " + postId + " of " + userId, e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads every post of a profile with its comments, in post ID order.
+     *
+     * @param userId the numeric ID of the profile owner
+     * @return the posts; empty if the profile has none
+     */
+    public List<Post> readProfile(String userId) {
+        long start = System.nanoTime();
+        profileReads.incrementAndGet();
+        List<Post> posts = new ArrayList<>();
+        synchronized (stripe(userId)) {
+            Path dir = open(userId);
+            try (FileChannel index = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.READ);
+                 FileChannel records = FileChannel.open(dir.resolve(RECORDS_FILE), StandardOpenOption.READ)) {
+                ByteBuffer slots = ByteBuffer.allocate((int) (index.size() / SLOT_BYTES * SLOT_BYTES));
+                readFully(index, slots, 0);
+                slots.flip();
+                for (int postId = 1; slots.remaining() >= SLOT_BYTES; postId++) {
+                    long postOffset = slots.getLong();
+                    long commentOffset = slots.getLong();
+                    if (postOffset < 0) continue;
+                    Record post = readRecord(records, postOffset);
+                    if (post == null || post.line == null) continue;
+                    List<String> comments = new ArrayList<>();
+                    for (long at = commentOffset; at >= 0; ) {
+                        // A torn comment is skipped; its older ones are still linked if its header is whole
+                        Record c = readRecord(records, at);
+                        if (c == null) break;
+                        if (c.line != null) comments.add(c.line);
+                        at = c.prev < at ? c.prev : -1;
+                    }
+                    Collections.reverse(comments);
+                    posts.add(new Post(postId, post.line, comments));
+                }
+            } catch (NoSuchFileException e) {
+                // No posts yet
+            } catch (IOException e) {
+                report("reading profile of " + userId, e);
+            }
+        }
+        renderLatency.recordSince(start);
+        return posts;
+    }
+
+    /**
+     * A decoded record.
+     */
+    private static final class Record {
+        /** Offset of the previous comment on the same post, or -1. */
+        final long prev;
+        /** The profile line, or null if the record was cut short. */
+        final String line;
+
+        Record(long prev, String line) {
+            this.prev = prev;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Returns a user's directory, importing the profile's Profile_ file first
+     * if the user has none yet; the caller holds the user's stripe.
+     */
+    private Path open(String userId) {
+        Path dir = root.resolve(userId);
+        if (Files.isDirectory(dir)) return dir;
+        try {
+            Files.createDirectories(dir);
+            Path profile = Paths.get("ServerFiles", Constants.GROUP_ID + "client" + userId,
+                    "Profile_" + Constants.GROUP_ID + "client" + userId + ".txt");
+            if (Files.exists(profile)) importProfile(dir, Files.readAllLines(profile, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            report("importing profile of " + userId, e);
+        }
+        return dir;
+    }
+
+    /**
+     * Writes the posts and comments of a Profile_ file into an empty store.
+     * Posts that reused an ID already taken (IDs used to restart at 1 after a
+     * server restart) are given new IDs past the highest one, keeping their line;
+     * comments attach to the first post with their ID, as reposts always did.
+     */
+    private void importProfile(Path dir, List<String> lines) throws IOException {
+        int maxId = 0;
+        for (String line : lines) {
+            int id = postIdOf(line);
+            if (id > maxId) maxId = id;
+        }
+        Set<Integer> used = new HashSet<>();
+        for (String line : lines) {
+            int id = postIdOf(line);
+            if (id > 0) {
+                if (!used.add(id)) used.add(id = ++maxId);
+                writePost(dir, id, line);
+            } else {
+                int idx = line.indexOf("Comment on post ");
+                if (idx < 0) continue;
+                idx += "Comment on post ".length();
+                int end = line.indexOf(' ', idx);
+                try {
+                    writeComment(dir, Integer.parseInt(line.substring(idx, end < 0 ? line.length() : end)), line);
+                } catch (NumberFormatException ignored) { }
+            }
+        }
+        imports.incrementAndGet();
+        System.out.println(Util.getTimestamp() + " PostStore: Imported " + used.size() + " posts into " + dir);
+    }
+
+    /**
+     * @return the post ID of a "PostID:n ..." line, or 0 if it is not a post line
+     */
+    private static int postIdOf(String line) {
+        if (!line.startsWith("PostID:")) return 0;
+        int space = line.indexOf(' ');
+        try {
+            return Integer.parseInt(line.substring("PostID:".length(), space < 0 ? line.length() : space));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Appends a post record and points its index slot at it, growing the
+     * index with empty slots as needed.
+     */
+    private void writePost(Path dir, int postId, String line) throws IOException {
+        try (FileChannel records = FileChannel.open(dir.resolve(RECORDS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel index = FileChannel.open(dir.resolve(INDEX_FILE),
+                     StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long offset = appendRecord(records, POST, postId, -1, line);
+            // The record must be on disk before a slot (and so a post ID) points at it
+            records.force(false);
+            long slots = index.size() / SLOT_BYTES;
+            ByteBuffer empty = ByteBuffer.allocate(SLOT_BYTES);
+            for (long s = slots; s < postId - 1; s++) {
+                empty.clear();
+                empty.putLong(-1).putLong(-1).flip();
+                writeFully(index, empty, s * SLOT_BYTES);
+            }
+            ByteBuffer slot = ByteBuffer.allocate(SLOT_BYTES);
+            slot.putLong(offset).putLong(-1).flip();
+            writeFully(index, slot, (long) (postId - 1) * SLOT_BYTES);
+            index.force(false);
+        }
+        postsAppended.incrementAndGet();
+    }
+
+    /**
+     * Appends a comment record linked to the post's previous comment and makes
+     * it the post's latest comment. If that previous comment is a torn tail of
+     * the records file, it is cut off and the new one links past it.
+     *
+     * @return false if the post does not exist
+     */
+    private boolean writeComment(Path dir, int postId, String line) throws IOException {
+        try (FileChannel index = FileChannel.open(dir.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel records = FileChannel.open(dir.resolve(RECORDS_FILE),
+                     StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long[] slot = readSlot(index, postId);
+            if (slot == null || slot[0] < 0) return false;
+            long prev = slot[1];
+            if (prev >= 0) {
+                Record last = readRecord(records, prev);
+                if (last == null || last.line == null) {
+                    // Only the last record can run past the end of the file
+                    records.truncate(prev);
+                    prev = last == null ? -1 : last.prev;
+                    tailsRepaired.incrementAndGet();
+                }
+            }
+            long offset = appendRecord(records, COMMENT, postId, prev, line);
+            // The record must be on disk before the slot points at it
+            records.force(false);
+            ByteBuffer latest = ByteBuffer.allocate(Long.BYTES);
+            latest.putLong(offset).flip();
+            writeFully(index, latest, (long) (postId - 1) * SLOT_BYTES + Long.BYTES);
+            index.force(false);
+        }
+        commentsAppended.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Reads the slot of a post ID.
+     *
+     * @return {post offset, latest comment offset}, or null past the end of the index
+     */
+    private static long[] readSlot(FileChannel index, int postId) throws IOException {
+        long at = (long) (postId - 1) * SLOT_BYTES;
+        if (postId < 1 || at + SLOT_BYTES > index.size()) return null;
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_BYTES);
+        readFully(index, slot, at);
+        slot.flip();
+        return new long[] { slot.getLong(), slot.getLong() };
+    }
+
+    /**
+     * Appends a record at the end of the records file.
+     *
+     * @return the record's offset
+     */
+    private static long appendRecord(FileChannel records, byte kind, int postId, long prev, String line)
+            throws IOException {
+        byte[] body = line.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        buf.putInt(body.length).put(kind).putInt(postId).putLong(prev).put(body).flip();
+        long offset = records.size();
+        writeFully(records, buf, offset);
+        return offset;
+    }
+
+    /**
+     * Reads the record at an offset. A record cut short by a crash is not an
+     * error: it reads as null if its header is incomplete, or with a null line
+     * if only its text is.
+     *
+     * @return the record, or null if there is no whole header at the offset
+     */
+    private Record readRecord(FileChannel records, long offset) throws IOException {
+        long end = records.size();
+        if (offset < 0 || offset + HEADER_BYTES > end) return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(records, header, offset);
+        header.flip();
+        int length = header.getInt();
+        header.get();
+        header.getInt();
+        long prev = header.getLong();
+        if (length < 0 || offset + HEADER_BYTES + length > end) return new Record(prev, null);
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(records, body, offset + HEADER_BYTES);
+        bytesRead.addAndGet(HEADER_BYTES + length);
+        return new Record(prev, new String(body.array(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads until the buffer is full.
+     */
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position);
+            if (n < 0) throw new IOException("Unexpected end of " + ch);
+            position += n;
+        }
+    }
+
+    /**
+     * Writes the whole buffer.
+     */
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) position += ch.write(buf, position);
+    }
+
+    /**
+     * @return the size of a file, or 0 if it does not exist
+     */
+    private static long size(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+
+    /**
+     * Logs a failed store operation.
+     */
+    private static void report(String what, IOException e) {
+        System.out.println(Util.getTimestamp() + " PostStore: Error " + what + ": " + e.getMessage());
+    }
+
+    /**
+     * Prints appends, lookups, profile reads and bytes read.
+     */
+    public void printReport() {
+        System.out.println("=== Post Store Report ===");
+        System.out.println("Posts appended: " + postsAppended.get() + ", comments appended: "
+                + commentsAppended.get() + ", profiles imported: " + imports.get()
+                + ", torn tails repaired: " + tailsRepaired.get());
+        System.out.println("Post lookups: " + lookups.get() + ", profile reads: " + profileReads.get()
+                + ", record bytes read: " + bytesRead.get());
+        System.out.println(renderLatency.summary());
+    }
+}
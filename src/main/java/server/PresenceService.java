@@ -0,0 +1,227 @@
+package server;
+
+import common.Constants;
+import common.Message;
+import common.Message.MessageType;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton tracking which connected clients want to know when the accounts
+ * they follow come online or go offline.
+ *<p>
+ * Presence itself is {@link ClientHandler#activeClients}. On top of it, every
+ * account has a watcher set: the connected clients following it. A client joins
+ * the watcher sets of its followees when it logs in, leaves them on disconnect,
+ * and is moved between sets when it follows or unfollows someone. A login or
+ * disconnect therefore only touches the connected followers of the account.
+ * Changes are not pushed one by one: each watcher accumulates the latest state
+ * per account, and a flusher thread sends everything accumulated as one
+ * PRESENCE message "online:a,b|offline:c" every PRESENCE_BATCH_MS.
+ */
+public class PresenceService {
+    /** Singleton instance of PresenceService. */
+    private static PresenceService instance = null;
+
+    /** Watched account ID → IDs of connected clients following it. */
+    private final ConcurrentHashMap<String, Set<String>> watchers = new ConcurrentHashMap<>();
+    /** Watcher ID → username → latest state not yet sent (true = online); guarded by the inner map. */
+    private final ConcurrentHashMap<String, Map<String, Boolean>> pending = new ConcurrentHashMap<>();
+
+    /** State changes queued for watchers. */
+    private final AtomicLong deltasQueued = new AtomicLong();
+    /** Queued changes replaced by a later change of the same account before sending. */
+    private final AtomicLong deltasCoalesced = new AtomicLong();
+    /** PRESENCE messages sent, including login snapshots. */
+    private final AtomicLong messagesSent = new AtomicLong();
+    /** Time to register a login: watcher sets, snapshot and deltas. */
+    private final LatencyTracker connectLatency = new LatencyTracker("Presence connect");
+
+    /** Private constructor for singleton pattern; starts the flusher thread. */
+    private PresenceService() {
+        Thread flusher = new Thread(this::flushLoop, "PresenceFlusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the PresenceService instance
+     */
+    public static PresenceService getInstance() {
+        if (instance == null) {
+            instance = new PresenceService();
+        }
+        return instance;
+    }
+
+    /**
+     * Checks whether a client is currently connected.
+     *
+     * @param clientId the numeric client ID
+     * @return true if the client has an active ClientHandler
+     */
+    public boolean isOnline(String clientId) {
+        return ClientHandler.activeClients.containsKey(clientId);
+    }
+
+    /**
+     * Registers a login: joins the watcher sets of the client's followees,
+     * sends the client which of them are online, and queues an "online"
+     * change for the client's connected followers.
+     *
+     * @param clientId the numeric ID of the client who logged in
+     */
+    public void connected(String clientId) {
+        long start = System.nanoTime();
+        List<String> online = new ArrayList<>();
+        for (String followee : SocialGraphManager.getInstance().getFollowees(clientId)) {
+            watch(followee, clientId);
+            if (isOnline(followee)) online.add(AuthenticationManager.getUsernameByNumericId(followee));
+        }
+        if (!online.isEmpty()) send(clientId, "online:" + String.join(",", online));
+        announce(clientId, true);
+        connectLatency.recordSince(start);
+    }
+
+    /**
+     * Registers a disconnect: leaves every watcher set, drops undelivered
+     * changes and queues an "offline" change for the client's connected followers.
+     *
+     * @param clientId the numeric ID of the client who disconnected
+     */
+    public void disconnected(String clientId) {
+        for (String followee : SocialGraphManager.getInstance().getFollowees(clientId)) {
+            unwatch(followee, clientId);
+        }
+        pending.remove(clientId);
+        announce(clientId, false);
+    }
+
+    /**
+     * Keeps watcher sets in line with a follow or unfollow; a connected
+     * follower of a connected account is told it is online right away, and an
+     * unfollowed account is reported offline so the client stops showing it.
+     *
+     * @param followerId the numeric ID of the follower
+     * @param followeeId the numeric ID of the account followed or unfollowed
+     * @param added      true for a follow, false for an unfollow
+     */
+    public void edgeChanged(String followerId, String followeeId, boolean added) {
+        if (!isOnline(followerId)) return;
+        if (added) {
+            watch(followeeId, followerId);
+            if (isOnline(followeeId)) {
+                queue(followerId, AuthenticationManager.getUsernameByNumericId(followeeId), true);
+            }
+        } else {
+            unwatch(followeeId, followerId);
+            // Only an online followee can be in the client's online set
+            if (isOnline(followeeId)) {
+                queue(followerId, AuthenticationManager.getUsernameByNumericId(followeeId), false);
+            }
+        }
+    }
+
+    /**
+     * Adds a watcher to an account's set. Done inside compute() so it cannot land
+     * in a set that unwatch() is dropping from the map at the same time.
+     */
+    private void watch(String watchedId, String watcherId) {
+        watchers.compute(watchedId, (k, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(watcherId);
+            return set;
+        });
+    }
+
+    /**
+     * Removes a watcher from an account's set, dropping the set once empty.
+     */
+    private void unwatch(String watchedId, String watcherId) {
+        watchers.computeIfPresent(watchedId, (k, set) -> {
+            set.remove(watcherId);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * Queues a state change of an account for each of its watchers.
+     */
+    private void announce(String clientId, boolean online) {
+        Set<String> set = watchers.get(clientId);
+        if (set == null) return;
+        String username = AuthenticationManager.getUsernameByNumericId(clientId);
+        for (String w : set) queue(w, username, online);
+    }
+
+    /**
+     * Records the latest state of an account for a watcher; an earlier unsent
+     * state of the same account is replaced.
+     */
+    private void queue(String watcherId, String username, boolean online) {
+        while (true) {
+            Map<String, Boolean> changes = pending.computeIfAbsent(watcherId, k -> new LinkedHashMap<>());
+            synchronized (changes) {
+                // The flusher may have taken this map meanwhile; then use a fresh one
+                if (pending.get(watcherId) != changes) continue;
+                if (changes.put(username, online) != null) deltasCoalesced.incrementAndGet();
+            }
+            deltasQueued.incrementAndGet();
+            return;
+        }
+    }
+
+    /**
+     * Flusher thread body: every batch interval, sends each watcher its
+     * accumulated changes in one message.
+     */
+    private void flushLoop() {
+        while (true) {
+            try {
+                Thread.sleep(Constants.PRESENCE_BATCH_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (String watcherId : pending.keySet()) {
+                Map<String, Boolean> changes = pending.get(watcherId);
+                if (changes == null) continue;
+                List<String> up = new ArrayList<>(), down = new ArrayList<>();
+                synchronized (changes) {
+                    pending.remove(watcherId, changes);
+                    for (Map.Entry<String, Boolean> c : changes.entrySet()) {
+                        (c.getValue() ? up : down).add(c.getKey());
+                    }
+                }
+                if (up.isEmpty() && down.isEmpty()) continue;
+                send(watcherId, "online:" + String.join(",", up) + "|offline:" + String.join(",", down));
+            }
+        }
+    }
+
+    /**
+     * Queues a PRESENCE message on a client's connection if it is still connected.
+     */
+    private void send(String clientId, String payload) {
+        ClientHandler h = ClientHandler.activeClients.get(clientId);
+        if (h == null) return;
+        h.sendExternalMessage(new Message(MessageType.PRESENCE, "Server", payload));
+        messagesSent.incrementAndGet();
+    }
+
+    /**
+     * Prints watcher set sizes, batching effectiveness and connect latency.
+     */
+    public void printReport() {
+        long watching = 0;
+        for (Set<String> set : watchers.values()) watching += set.size();
+        System.out.println("=== Presence Report ===");
+        System.out.println("Watched accounts: " + watchers.size() + ", watch entries: " + watching);
+        System.out.println("Changes queued: " + deltasQueued.get() + ", coalesced before sending: "
+                + deltasCoalesced.get() + ", PRESENCE messages: " + messagesSent.get());
+        System.out.println(connectLatency.summary());
+    }
+}
@@ -0,0 +1,100 @@
+package server;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command-line benchmark measuring profile lock throughput as the number of
+ * threads grows, each thread repeatedly locking a random profile, doing a short
+ * simulated write and unlocking it.
+ *<p>
+ * Usage: {@code java server.ProfileLockBenchmark [seconds] [profiles] [--global]}.
+ * Defaults are 3 seconds per thread count over 10,000 profiles. Thread counts
+ * double from 1 up to the number of available processors. With --global every
+ * lock/unlock pair additionally runs under one shared monitor, reproducing the
+ * former instance-wide synchronization as a baseline.
+ */
+public class ProfileLockBenchmark {
+
+    /** Shared monitor used by the --global baseline. */
+    private static final Object GLOBAL = new Object();
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional seconds per run, profile count and --global flag
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int profiles = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        boolean global = args.length > 2 && args[2].equals("--global");
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // ProfileManager logs every lock and unlock; keep that off the console
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        console.printf("%s locking, %,d profiles, %d s per run, %d cores%n",
+                global ? "Global" : "Striped", profiles, seconds, cores);
+
+        ProfileManager pm = ProfileManager.getInstance();
+        double single = 0;
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double opsPerSec = run(pm, threads, seconds, profiles, global);
+            if (threads == 1) single = opsPerSec;
+            console.printf("%3d threads: %,12.0f ops/s (x%.2f)%n", threads, opsPerSec, opsPerSec / single);
+        }
+        System.setOut(console);
+        System.exit(0);
+    }
+
+    /**
+     * Runs one timed round with the given number of threads.
+     *
+     * @return lock/unlock pairs completed per second
+     */
+    private static double run(ProfileManager pm, int threads, int seconds, int profiles, boolean global)
+            throws InterruptedException {
+        AtomicLong ops = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int t = 0; t < threads; t++) {
+            String requester = "bench" + t;
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    String profile = String.valueOf(rnd.nextInt(profiles));
+                    if (global) {
+                        synchronized (GLOBAL) {
+                            cycle(pm, profile, requester);
+                        }
+                    } else {
+                        cycle(pm, profile, requester);
+                    }
+                    count++;
+                }
+                ops.addAndGet(count);
+                done.countDown();
+            });
+            worker.start();
+        }
+        done.await();
+        return ops.get() / (double) seconds;
+    }
+
+    /**
+     * Locks a profile the way posts and comments do, waiting for the lease,
+     * simulates the write and unlocks it.
+     */
+    private static void cycle(ProfileManager pm, String profile, String requester) {
+        LeaseTimer.Lease lease = pm.acquireProfile(profile, requester);
+        long until = System.nanoTime() + 2_000;
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+        pm.releaseProfile(profile, lease);
+    }
+}
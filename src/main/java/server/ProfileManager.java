@@ -8,40 +8,123 @@ import common.Util;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.ObjectOutputStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * Manages user profile operations including locking for concurrent access,
  * appending posts and comments, handling profile viewing, and reposts.
  * Uses fine-grained locking, timeout warnings, and notification queuing.
+ *<p>
+ * A profile lock is a lease held across the file write. The lease state is
+ * guarded per profile by one of a fixed set of stripe locks, held only while the
+ * state changes; file I/O runs under the lease alone, and messages and event
+ * publication happen after it is released, so work on one profile never waits
+ * for another profile's. Posts and comments wait for the lease with
+ * {@link #acquireProfile} rather than being denied and queued, so no write is
+ * dropped and no lease is granted to a caller that is not waiting for it.
  */
 public class ProfileManager {
 
     // --- Locking infrastructure for concurrent profile access ---
+    /** Number of lock stripes guarding the per-profile lease state. */
+    private static final int STRIPES = 64;
+    /** Stripe locks; the lease state of a profile is guarded by stripe(profileId). */
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    /** Signalled when a lease guarded by the matching stripe is released. */
+    private final Condition[] released = new Condition[STRIPES];
     /** Indicates locked state per client profile. */
     private ConcurrentHashMap<String, Boolean> locks = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, String> lockOwners = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, Queue<String>> waitingQueues = new ConcurrentHashMap<>();
 
-    /** Timers to enforce lock timeouts and warnings. */
-    private ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    /** Leases enforcing lock timeouts and warnings, expired by the shared LeaseTimer. */
+    private ConcurrentHashMap<String, LeaseTimer.Lease> leases = new ConcurrentHashMap<>();
 
-    // --- Counters to assign unique post IDs per client ---
-    /** Per-client counters to generate unique post IDs. */
-    private ConcurrentHashMap<String, AtomicInteger> postIdCounters = new ConcurrentHashMap<>();
+    // --- Rendered profile views ---
+    /**
+     * The lines ACCESS_PROFILE sends for a profile, as of one version of it.
+     */
+    private static final class ProfileView {
+        /** Approximate heap cost of a cached line beyond its characters. */
+        private static final int LINE_OVERHEAD = 48;
+
+        /** Profile version the view reflects. */
+        long version;
+        /** Post ID → post line followed by its comment lines, in post ID order. */
+        final Map<Integer, List<String>> posts = new LinkedHashMap<>();
+        /** Approximate heap size of the view in bytes. */
+        long bytes;
+
+        ProfileView(long version) {
+            this.version = version;
+        }
+
+        /**
+         * Adds a post at the end of the view.
+         */
+        void addPost(int postId, String line) {
+            List<String> block = new ArrayList<>();
+            block.add("Uploaded post " + postId + ": " + line);
+            posts.put(postId, block);
+            bytes += LINE_OVERHEAD + 2L * block.get(0).length();
+        }
+
+        /**
+         * Adds a comment under its post; ignored if the post is not in the view.
+         */
+        void addComment(int postId, String line) {
+            List<String> block = posts.get(postId);
+            if (block == null) return;
+            block.add("  " + line);
+            bytes += LINE_OVERHEAD + 2L * (line.length() + 2);
+        }
+
+        /**
+         * @return the lines to send, with a placeholder under posts without comments
+         */
+        List<String> lines() {
+            List<String> out = new ArrayList<>();
+            for (List<String> block : posts.values()) {
+                out.addAll(block);
+                if (block.size() == 1) out.add("  (no comments)");
+            }
+            return out;
+        }
+    }
+
+    /** Cached views by profile ID, least recently viewed first; guarded by itself. */
+    private final LinkedHashMap<String, ProfileView> views = new LinkedHashMap<>(16, 0.75f, true);
+    /** Profile ID → version, bumped by every post or comment; guarded by views. */
+    private final Map<String, Long> versions = new HashMap<>();
+    /** Approximate bytes held by cached views; guarded by views. */
+    private long viewBytes;
+    /** Profile views served from the cache. */
+    private final AtomicLong viewHits = new AtomicLong();
+    /** Profile views rendered from the post store. */
+    private final AtomicLong viewMisses = new AtomicLong();
+    /** Cached views updated in place by a post or comment. */
+    private final AtomicLong viewPatches = new AtomicLong();
+    /** Views evicted to stay within the memory cap. */
+    private final AtomicLong viewEvictions = new AtomicLong();
+    /** Bytes of rendered views served from the cache instead of the post store. */
+    private final AtomicLong viewBytesSaved = new AtomicLong();
 
     /** Singleton instance. */
     private static ProfileManager instance = null;
 
     /** Private constructor for singleton pattern. */
-    private ProfileManager() { }
+    private ProfileManager() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+            released[i] = stripes[i].newCondition();
+        }
+    }
 
     /**
      * Returns the singleton ProfileManager instance.
@@ -52,66 +135,143 @@ public class ProfileManager {
         return instance;
     }
 
+    /**
+     * Returns the lock guarding the lease state of a profile.
+     *
+     * @param clientId the profile owner ID
+     * @return the profile's stripe
+     */
+    private ReentrantLock stripe(String clientId) {
+        return stripes[Math.floorMod(clientId.hashCode(), STRIPES)];
+    }
+
+    /**
+     * Returns the condition signalled when a lease of the profile's stripe is released.
+     */
+    private Condition released(String clientId) {
+        return released[Math.floorMod(clientId.hashCode(), STRIPES)];
+    }
+
+    /**
+     * Locks a profile for a write, waiting until any current lease is released
+     * or times out. The caller must pass the returned lease to
+     * {@link #releaseProfile}.
+     *
+     * @param clientId    the profile owner ID
+     * @param requesterId the client ID the write is done for
+     * @return the lease granted for the write
+     */
+    LeaseTimer.Lease acquireProfile(String clientId, String requesterId) {
+        ReentrantLock lock = stripe(clientId);
+        lock.lock();
+        try {
+            while (locks.containsKey(clientId)) {
+                released(clientId).awaitUninterruptibly();
+            }
+            grant(clientId, requesterId);
+            return leases.get(clientId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a write started with {@link #acquireProfile}. Does nothing if the
+     * lease already timed out, so a slow write never releases a later lease.
+     *
+     * @param clientId the profile owner ID
+     * @param lease    the lease returned by acquireProfile
+     */
+    void releaseProfile(String clientId, LeaseTimer.Lease lease) {
+        ReentrantLock lock = stripe(clientId);
+        lock.lock();
+        try {
+            if (leases.get(clientId) != lease) return;
+        } finally {
+            lock.unlock();
+        }
+        unlockProfile(clientId);
+    }
+
     /**
      * Attempts to lock the specified client profile for exclusive access.
-     * If already locked, queues requester and sends a diagnostic denial.
+     * If already locked by someone else, queues requester (once) and sends a
+     * diagnostic denial; the current holder retrying gets the lock again
+     * with its lease renewed.
      * Issues a timeout warning and automatic unlock after configured delay.
+     * Only the profile's stripe is held, and messages are sent after releasing it.
      *
      * @param clientId     the profile owner ID
      * @param requesterId  the requesting client ID
      * @return true if lock acquired; false if queued for later
      */
-    public synchronized boolean lockProfile(String clientId, String requesterId) {
-        if (locks.containsKey(clientId)) {
-            waitingQueues.putIfAbsent(clientId, new LinkedList<>());
-            waitingQueues.get(clientId).offer(requesterId);
-            // Notify denial to requester
-            ClientHandler handler = ClientHandler.activeClients.get(requesterId);
-            if (handler != null) {
-                try {
-                    handler.getOutputStream().writeObject(
-                            new Message(MessageType.DIAGNOSTIC, "Server",
-                                    "Profile locked—please retry later"));
-                    handler.getOutputStream().flush();
-                } catch (IOException ignored) { }
-            }
-            System.out.println(Util.getTimestamp()
-                    + " ProfileManager: Client " + requesterId
-                    + " queued for profile " + clientId);
-            return false;
-        } else {
-            locks.put(clientId, true);
-            lockOwners.put(clientId, requesterId);
-            // Schedule timeout warning and auto-unlock
-            Timer timer = new Timer();
-            timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    // Warn lock owner
-                    String owner = lockOwners.get(clientId);
-                    ClientHandler ownerHandler = ClientHandler.activeClients.get(owner);
-                    if (ownerHandler != null) {
-                        try {
-                            ownerHandler.getOutputStream().writeObject(
-                                    new Message(MessageType.DIAGNOSTIC, "Server",
-                                            "Warning: your lock on Profile_"
-                                                    + Constants.GROUP_ID + "client" + clientId
-                                                    + " has timed out and will be released."));
-                            ownerHandler.getOutputStream().flush();
-                        } catch (IOException ignored) { }
-                    }
-                    // Actually release the lock
-                    System.out.println(Util.getTimestamp()
-                            + " ProfileManager: Lock timeout for profile " + clientId);
-                    unlockProfile(clientId);
+    public boolean lockProfile(String clientId, String requesterId) {
+        ReentrantLock lock = stripe(clientId);
+        lock.lock();
+        try {
+            if (locks.containsKey(clientId)) {
+                if (requesterId.equals(lockOwners.get(clientId))) {
+                    leases.get(clientId).renew(Constants.TIMEOUT_MILLISECONDS);
+                    return true;
                 }
-            }, Constants.TIMEOUT_MILLISECONDS);
-            timers.put(clientId, timer);
+                Queue<String> q = waitingQueues.computeIfAbsent(clientId, k -> new LinkedList<>());
+                if (!q.contains(requesterId)) q.offer(requesterId);
+            } else {
+                grant(clientId, requesterId);
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Notify denial to requester
+        ClientHandler handler = ClientHandler.activeClients.get(requesterId);
+        if (handler != null) {
+            handler.sendExternalMessage(new Message(MessageType.DIAGNOSTIC, "Server",
+                    "Profile locked—please retry later"));
+        }
+        System.out.println(Util.getTimestamp()
+                + " ProfileManager: Client " + requesterId
+                + " queued for profile " + clientId);
+        return false;
+    }
 
+    /**
+     * Marks a profile locked by a requester and schedules its timeout; the
+     * caller holds the profile's stripe.
+     */
+    private void grant(String clientId, String requesterId) {
+        locks.put(clientId, true);
+        lockOwners.put(clientId, requesterId);
+        // Schedule timeout warning and auto-unlock
+        LeaseTimer.Lease[] lease = new LeaseTimer.Lease[1];
+        lease[0] = LeaseTimer.getInstance().schedule(Constants.TIMEOUT_MILLISECONDS, () -> {
+            // Only expire the lease this task was scheduled for
+            String owner;
+            ReentrantLock lock = stripe(clientId);
+            lock.lock();
+            try {
+                if (leases.get(clientId) != lease[0]) return;
+                owner = lockOwners.get(clientId);
+            } finally {
+                lock.unlock();
+            }
+            // Warn lock owner
+            ClientHandler ownerHandler = owner == null ? null : ClientHandler.activeClients.get(owner);
+            if (ownerHandler != null) {
+                ownerHandler.sendExternalMessage(new Message(MessageType.DIAGNOSTIC, "Server",
+                        "Warning: your lock on Profile_"
+                                + Constants.GROUP_ID + "client" + clientId
+                                + " has timed out and will be released."));
+            }
+            // Actually release the lock
             System.out.println(Util.getTimestamp()
-                    + " ProfileManager: Profile " + clientId + " locked.");
-            return true;
-        }
+                    + " ProfileManager: Lock timeout for profile " + clientId);
+            unlockProfile(clientId);
+        });
+        leases.put(clientId, lease[0]);
+
+        System.out.println(Util.getTimestamp()
+                + " ProfileManager: Profile " + clientId + " locked.");
     }
 
     /**
@@ -120,49 +280,49 @@ public class ProfileManager {
      *
      * @param clientId the profile owner ID
      */
-    public synchronized void unlockProfile(String clientId) {
-        locks.remove(clientId);
-        lockOwners.remove(clientId);
-        Timer t = timers.remove(clientId);
-        if (t != null) t.cancel();
+    public void unlockProfile(String clientId) {
+        String next = null;
+        ReentrantLock lock = stripe(clientId);
+        lock.lock();
+        try {
+            locks.remove(clientId);
+            lockOwners.remove(clientId);
+            LeaseTimer.Lease lease = leases.remove(clientId);
+            if (lease != null) lease.cancel();
+
+            Queue<String> q = waitingQueues.get(clientId);
+            if (q != null) {
+                next = q.poll();
+                if (q.isEmpty()) waitingQueues.remove(clientId);
+                // Automatically acquire lock for next client
+                if (next != null) grant(clientId, next);
+            }
+            if (next == null) released(clientId).signalAll();
+        } finally {
+            lock.unlock();
+        }
         System.out.println(Util.getTimestamp() + " ProfileManager: Profile " + clientId + " unlocked.");
 
-        Queue<String> q = waitingQueues.get(clientId);
-        if (q != null && !q.isEmpty()) {
-            String next = q.poll();
-            // Automatically acquire lock for next client
-            lockProfile(clientId, next);
-
-            // Notify next that the profile is available
-            ClientHandler handler = ClientHandler.activeClients.get(next);
-            if (handler != null) {
-                try {
-                    handler.getOutputStream().writeObject(
-                            new Message(MessageType.DIAGNOSTIC, "Server",
-                                    "Profile is now available"));
-                    handler.getOutputStream().flush();
-                } catch (IOException ignored) { }
-            }
+        // Notify next that the profile is available
+        ClientHandler handler = next == null ? null : ClientHandler.activeClients.get(next);
+        if (handler != null) {
+            handler.sendExternalMessage(new Message(MessageType.DIAGNOSTIC, "Server",
+                    "Profile is now available"));
         }
     }
 
     /**
      * Appends a new post entry to the owner's profile file with a unique post ID.
-     * Uses locking to ensure exclusive write access and releases lock afterward.
+     * Waits for exclusive write access and releases the lock afterward.
      *
      * @param clientId the owner client ID
      * @param content  the post content text
      */
-    public synchronized void updateProfile(String clientId, String content) {
-        if (!lockProfile(clientId, clientId)) {
-            System.out.println(Util.getTimestamp()
-                    + " ProfileManager: Unable to acquire lock on profile " + clientId);
-            return;
-        }
+    public void updateProfile(String clientId, String content) {
+        LeaseTimer.Lease lease = acquireProfile(clientId, clientId);
 
         String username = AuthenticationManager.getUsernameByNumericId(clientId);
-        AtomicInteger ctr = postIdCounters.computeIfAbsent(clientId, k -> new AtomicInteger(1));
-        int postId = ctr.getAndIncrement();
+        int postId = PostStore.getInstance().reservePostId(clientId);
 
         // Ensure server-side per-client directory exists
         String dirPath = "ServerFiles/" + Constants.GROUP_ID + "client" + clientId;
@@ -187,8 +347,13 @@ public class ProfileManager {
             System.out.println(Util.getTimestamp()
                     + " ProfileManager: Error writing to " + fileName);
             e.printStackTrace();
+        }
+        try {
+            String postLine = entry.trim();
+            patchView(clientId, v -> v.addPost(postId, postLine));
+            if (!PostStore.getInstance().appendPost(clientId, postId, postLine)) invalidateView(clientId);
         } finally {
-            unlockProfile(clientId);
+            releaseProfile(clientId, lease);
         }
     }
 
@@ -200,17 +365,15 @@ public class ProfileManager {
      * @param commenterId   the client ID of the commenter
      * @param comment       the comment text
      */
-    public synchronized void addCommentToPost(String targetId,
+    public void addCommentToPost(String targetId,
                                               String postId,
                                               String commenterId,
                                               String comment) {
-        if (!lockProfile(targetId, commenterId)) {
-            System.out.println(Util.getTimestamp()
-                    + " ProfileManager: Unable to lock profile " + targetId + " for commenting.");
-            return;
-        }
+        LeaseTimer.Lease lease = acquireProfile(targetId, commenterId);
 
         String commenterName = AuthenticationManager.getUsernameByNumericId(commenterId);
+        // Import an existing Profile_ file before it gets the new line
+        PostStore.getInstance().prepare(targetId);
 
         // Ensure server-side per-client directory exists
         String dirPath = "ServerFiles/" + Constants.GROUP_ID + "client" + targetId;
@@ -234,48 +397,139 @@ public class ProfileManager {
                     + " ProfileManager: Error appending comment to " + fileName);
             e.printStackTrace();
         }
+        try {
+            int id = parsePostId(postId);
+            String commentLine = logEntry.trim();
+            patchView(targetId, v -> v.addComment(id, commentLine));
+            if (!PostStore.getInstance().appendComment(targetId, id, commentLine)) {
+                invalidateView(targetId);
+                System.out.println(Util.getTimestamp() + " ProfileManager: Comment on unknown post "
+                        + postId + " of " + targetId + " not indexed");
+            }
+        } finally {
+            releaseProfile(targetId, lease);
+        }
 
         // Notify author and followers
         String notif = "New comment on post " + postId
                 + " from " + commenterName + ": " + comment;
 
-        // Author: queue, live push & purge
-        NotificationManager.getInstance().addNotification(targetId, notif);
-        ClientHandler authorH = ClientHandler.activeClients.get(targetId);
-        if (authorH != null) {
-            authorH.sendExternalMessage(new Message(
-                    MessageType.DIAGNOSTIC,
-                    "Server",
-                    notif
-            ));
-            NotificationManager.getInstance()
-                    .removeNotification(targetId, notif);
-        }
-
-        // Followers: queue, live push & purge
-        Set<String> followers = SocialGraphManager.getInstance().getFollowers(targetId);
-        for (String fid : followers) {
-            if (!fid.equals(commenterId)) {
-                NotificationManager.getInstance().addNotification(fid, notif);
-                ClientHandler fh = ClientHandler.activeClients.get(fid);
-                if (fh != null) {
-                    fh.sendExternalMessage(new Message(
-                            MessageType.DIAGNOSTIC,
-                            "Server",
-                            notif
-                    ));
-                    NotificationManager.getInstance()
-                            .removeNotification(fid, notif);
-                }
+        // Author and followers are notified by the CommentAdded consumers
+        EventBus.getInstance().publish(new DomainEvent.CommentAdded(targetId, postId, commenterId, notif));
+    }
+
+    /**
+     * Returns the rendered view of a profile: each post line followed by its
+     * comment lines. Served from the cache when it holds the profile's current
+     * version; otherwise rendered from the post store and cached, unless a post
+     * or comment arrived meanwhile.
+     *
+     * @param profileId the numeric ID of the profile owner
+     * @return the lines to send, empty if the profile has no posts
+     */
+    public List<String> profileView(String profileId) {
+        long version;
+        synchronized (views) {
+            version = versions.getOrDefault(profileId, 0L);
+            ProfileView cached = views.get(profileId);
+            if (cached != null && cached.version == version) {
+                viewHits.incrementAndGet();
+                viewBytesSaved.addAndGet(cached.bytes);
+                return cached.lines();
+            }
+        }
+        viewMisses.incrementAndGet();
+        ProfileView view = new ProfileView(version);
+        for (PostStore.Post post : PostStore.getInstance().readProfile(profileId)) {
+            view.addPost(post.postId, post.line);
+            for (String c : post.comments) view.addComment(post.postId, c);
+        }
+        synchronized (views) {
+            if (versions.getOrDefault(profileId, 0L) == version) {
+                ProfileView old = views.put(profileId, view);
+                if (old != null) viewBytes -= old.bytes;
+                viewBytes += view.bytes;
+                evictViews();
+            }
+        }
+        return view.lines();
+    }
+
+    /**
+     * Moves a profile to its next version and applies an append to its cached
+     * view, if any. Called before the append is written to the post store, so a
+     * view rendered concurrently from the store is never cached with it missing.
+     *
+     * @param profileId the numeric ID of the profile owner
+     * @param patch     the change to apply to the cached view
+     */
+    private void patchView(String profileId, Consumer<ProfileView> patch) {
+        synchronized (views) {
+            long version = versions.getOrDefault(profileId, 0L) + 1;
+            versions.put(profileId, version);
+            ProfileView view = views.get(profileId);
+            if (view == null) return;
+            viewBytes -= view.bytes;
+            if (view.version != version - 1) {
+                views.remove(profileId);
+                return;
             }
+            patch.accept(view);
+            view.version = version;
+            viewBytes += view.bytes;
+            viewPatches.incrementAndGet();
+            evictViews();
+        }
+    }
+
+    /**
+     * Drops a profile's cached view, e.g. after an append failed to reach the store.
+     *
+     * @param profileId the numeric ID of the profile owner
+     */
+    private void invalidateView(String profileId) {
+        synchronized (views) {
+            versions.merge(profileId, 1L, Long::sum);
+            ProfileView view = views.remove(profileId);
+            if (view != null) viewBytes -= view.bytes;
+        }
+    }
+
+    /**
+     * Evicts the least recently viewed profiles while over the memory cap; the
+     * caller holds views.
+     */
+    private void evictViews() {
+        Iterator<ProfileView> it = views.values().iterator();
+        while (viewBytes > Constants.PROFILE_VIEW_CACHE_BYTES && it.hasNext()) {
+            viewBytes -= it.next().bytes;
+            it.remove();
+            viewEvictions.incrementAndGet();
         }
+    }
 
-        unlockProfile(targetId);
+    /**
+     * Prints profile view cache hits, misses, patches, evictions and bytes saved.
+     */
+    public void printReport() {
+        long hits = viewHits.get(), misses = viewMisses.get();
+        long cached;
+        int profiles;
+        synchronized (views) {
+            cached = viewBytes;
+            profiles = views.size();
+        }
+        System.out.println("=== Profile View Cache Report ===");
+        System.out.printf("Hits: %d, misses: %d, hit ratio: %.1f%%%n", hits, misses,
+                hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses));
+        System.out.println("Patched in place: " + viewPatches.get() + ", evicted: " + viewEvictions.get()
+                + ", cached: " + profiles + " profiles, ~" + cached + " bytes");
+        System.out.println("Bytes served from cache instead of the post store: ~" + viewBytesSaved.get());
     }
 
     /**
      * Handles access_profile requests by verifying follow relationship,
-     * reading and parsing the target's profile file, and streaming posts
+     * rendering the target's posts (from the view cache or the post store), and streaming posts
      * and their associated comments back to the requester.
      *
      * @param msg                  the access_profile Message
@@ -309,60 +563,18 @@ public class ProfileManager {
                 return;
             }
 
-            // Ensure server-side per-client directory exists
-            String dirPath = "ServerFiles/" + Constants.GROUP_ID + "client" + targetNumericId;
-            File dir = new File(dirPath);
-            if (!dir.exists()) {
-                dir.mkdirs();
-            }
-
-            String fileName = dirPath + "/Profile_" + Constants.GROUP_ID
-                    + "client" + targetNumericId + ".txt";
-            File profileFile = new File(fileName);
-
-            if (!profileFile.exists() || profileFile.length() == 0) {
+            List<String> lines = getInstance().profileView(targetNumericId);
+            if (lines.isEmpty()) {
                 output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server",
                         "Access granted. Profile is empty."));
                 output.flush();
                 return;
             }
 
-            // Read all lines
-            List<String> lines = Files.readAllLines(profileFile.toPath(), StandardCharsets.UTF_8);
-
-            // First pass: collect comments per postId
-            Map<Integer, List<String>> commentMap = new HashMap<>();
-            for (String line : lines) {
-                if (line.contains("Comment on post ")) {
-                    int idx = line.indexOf("Comment on post ") + "Comment on post ".length();
-                    int end = line.indexOf(' ', idx);
-                    try {
-                        int postId = Integer.parseInt(line.substring(idx, end));
-                        commentMap.computeIfAbsent(postId, k -> new ArrayList<>()).add(line);
-                    } catch (NumberFormatException ignored) { }
-                }
-            }
-
-            // Second pass: output posts with their comments
+            // Output posts with their comments
             output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server", "Access granted."));
             for (String line : lines) {
-                if (line.startsWith("PostID:")) {
-                    int spaceIdx = line.indexOf(' ');
-                    int postId = Integer.parseInt(line.substring("PostID:".length(), spaceIdx));
-                    output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server",
-                            "Uploaded post " + postId + ": " + line));
-
-                    List<String> comms = commentMap.get(postId);
-                    if (comms == null || comms.isEmpty()) {
-                        output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server",
-                                "  (no comments)"));
-                    } else {
-                        for (String c : comms) {
-                            output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server",
-                                    "  " + c));
-                        }
-                    }
-                }
+                output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server", line));
             }
             output.flush();
 
@@ -406,24 +618,9 @@ public class ProfileManager {
             return;
         }
 
-        // Read original post from the server-side per-client directory
-        String profilePath = "ServerFiles/" + Constants.GROUP_ID
-                + "client" + targetNumericId
-                + "/Profile_" + Constants.GROUP_ID + "client" + targetNumericId + ".txt";
-        String originalLine = "";
-        try (BufferedReader br = new BufferedReader(new FileReader(profilePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.startsWith("PostID:" + postId + " ")) {
-                    originalLine = line;
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            System.out.println(Util.getTimestamp()
-                    + " ProfileManager: Error reading profile file " + profilePath);
-            e.printStackTrace();
-        }
+        // Look the original post up in the author's post store
+        String originalLine = PostStore.getInstance().readPost(targetNumericId, parsePostId(postId));
+        if (originalLine == null) originalLine = "";
         if (originalLine.isEmpty()) {
             try {
                 output.writeObject(new Message(MessageType.DIAGNOSTIC, "Server",
@@ -478,17 +675,21 @@ public class ProfileManager {
         String notif = "Your post " + postId + " was reposted by " +
                 AuthenticationManager.getUsernameByNumericId(requesterNumericId);
 
-        // Queue & live push to original author, then purge
-        NotificationManager.getInstance().addNotification(targetNumericId, notif);
-        ClientHandler oh = ClientHandler.activeClients.get(targetNumericId);
-        if (oh != null) {
-            oh.sendExternalMessage(new Message(
-                    MessageType.DIAGNOSTIC,
-                    "Server",
-                    notif
-            ));
-            NotificationManager.getInstance()
-                    .removeNotification(targetNumericId, notif);
+        // The original author is notified by the Reposted consumers
+        EventBus.getInstance().publish(new DomainEvent.Reposted(requesterNumericId, targetNumericId, postId, notif));
+    }
+
+    /**
+     * Parses a post ID sent by a client.
+     *
+     * @param postId the post ID text
+     * @return the post ID, or 0 if it is not a number
+     */
+    private static int parsePostId(String postId) {
+        try {
+            return Integer.parseInt(postId.trim());
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,238 @@
+package server;
+
+import common.Constants;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton engine suggesting accounts to follow from the follower graph.
+ *<p>
+ * A candidate is anyone followed by someone the user follows; it is ranked by the
+ * number of the user's followees that follow it (mutual connections). The two-hop
+ * expansion runs on a fork-join pool, splitting the user's followees across tasks.
+ * Rows longer than a fixed cap (hub accounts) are sampled with a fixed stride so
+ * the work per followee stays bounded.
+ *<p>
+ * The mutual counts of each user are cached. When the user follows or unfollows
+ * someone, the counts are patched with that account's followees instead of being
+ * recomputed; other graph changes are picked up when the entry expires.
+ */
+public class RecommendationEngine {
+    /** Singleton instance of RecommendationEngine. */
+    private static RecommendationEngine instance = null;
+
+    /** Followee rows longer than this are sampled during the second hop. */
+    private static final int HUB_SAMPLE = 512;
+    /** Users following more accounts than this have their first hop sampled. */
+    private static final int FIRST_HOP_SAMPLE = 2_048;
+    /** Followees expanded by one fork-join leaf task. */
+    private static final int LEAF_FOLLOWEES = 32;
+
+    /**
+     * Cached mutual counts of one user.
+     */
+    private static class Entry {
+        /** Candidate ID → number of the user's (sampled) followees following it; guarded by this. */
+        final Map<Integer, Integer> counts;
+        /** Creation time in milliseconds, for TTL expiry. */
+        final long createdAt = System.currentTimeMillis();
+        /** Generation read before the counts were computed. */
+        final long generation;
+
+        Entry(long generation, Map<Integer, Integer> counts) {
+            this.generation = generation;
+            this.counts = counts;
+        }
+    }
+
+    /** Pool running the two-hop expansion. */
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Cached counts per user ID. */
+    private final ConcurrentHashMap<Integer, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Bumped by every edge change; counts computed while it moved may have missed
+     * an incremental patch and are returned but not cached. The check and the
+     * insert run inside one cache.compute, and patches run inside
+     * computeIfPresent, so a change cannot slip between them.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Latency of full two-hop computations. */
+    private final LatencyTracker computeLatency = new LatencyTracker("Recommendation compute");
+    /** Number of requests answered from the cache. */
+    private final AtomicLong hits = new AtomicLong();
+    /** Number of requests that needed a full computation. */
+    private final AtomicLong misses = new AtomicLong();
+    /** Number of cached entries patched after an edge change. */
+    private final AtomicLong incrementalUpdates = new AtomicLong();
+    /** Number of rows that were sampled because they exceeded a cap. */
+    private final AtomicLong sampledRows = new AtomicLong();
+
+    /** Private constructor for singleton pattern. */
+    private RecommendationEngine() { }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the RecommendationEngine instance
+     */
+    public static RecommendationEngine getInstance() {
+        if (instance == null) {
+            instance = new RecommendationEngine();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the best candidates for a user, most mutual connections first
+     * (ties broken by lower ID). The user and accounts they already follow are
+     * never returned.
+     *
+     * @param graph the follower graph
+     * @param user  the user's int ID
+     * @param limit the maximum number of candidates
+     * @return pairs {candidate ID, mutual connections}
+     */
+    public List<int[]> recommend(CompactGraph graph, int user, int limit) {
+        Entry e = cache.get(user);
+        if (e != null && System.currentTimeMillis() - e.createdAt > Constants.RECOMMEND_CACHE_TTL_MS) {
+            cache.remove(user, e);
+            e = null;
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+            long gen = generation.get();
+            long start = System.nanoTime();
+            int[] firstHop = sample(graph.followingOf(user), FIRST_HOP_SAMPLE);
+            Map<Integer, Integer> counts = pool.invoke(new ExpandTask(graph, firstHop, 0, firstHop.length));
+            computeLatency.recordSince(start);
+            Entry computed = new Entry(gen, counts);
+            cache.compute(user, (k, old) -> generation.get() == gen ? computed : old);
+            e = computed;
+        } else {
+            hits.incrementAndGet();
+        }
+
+        // Bounded min-heap keeps the best `limit` candidates
+        PriorityQueue<int[]> top = new PriorityQueue<>(
+                Comparator.<int[]>comparingInt(c -> c[1]).thenComparingInt(c -> -c[0]));
+        synchronized (e) {
+            for (Map.Entry<Integer, Integer> c : e.counts.entrySet()) {
+                int w = c.getKey();
+                if (w == user || graph.hasEdge(user, w)) continue;
+                top.offer(new int[] { w, c.getValue() });
+                if (top.size() > limit) top.poll();
+            }
+        }
+        List<int[]> result = new ArrayList<>(top);
+        result.sort(Comparator.<int[]>comparingInt(c -> -c[1]).thenComparingInt(c -> c[0]));
+        return result;
+    }
+
+    /**
+     * Patches the cached counts of the follower after they followed or unfollowed
+     * someone: each account the followee follows gains or loses one mutual.
+     *
+     * @param graph    the follower graph
+     * @param follower the user whose followees changed
+     * @param followee the account followed or unfollowed
+     * @param added    true for a follow, false for an unfollow
+     */
+    public void edgeChanged(CompactGraph graph, int follower, int followee, boolean added) {
+        long gen = generation.incrementAndGet();
+        if (!cache.containsKey(follower)) return;
+        int[] row = sample(graph.followingOf(followee), HUB_SAMPLE);
+        cache.computeIfPresent(follower, (k, e) -> {
+            // Counts computed after this change was counted already include it
+            if (e.generation >= gen) return e;
+            synchronized (e) {
+                for (int w : row) {
+                    int n = e.counts.getOrDefault(w, 0) + (added ? 1 : -1);
+                    if (n > 0) {
+                        e.counts.put(w, n);
+                    } else {
+                        e.counts.remove(w);
+                    }
+                }
+            }
+            incrementalUpdates.incrementAndGet();
+            return e;
+        });
+    }
+
+    /**
+     * Returns row unchanged if it is at most cap long, else every
+     * (length / cap)-th element, so the same row always yields the same sample.
+     */
+    private int[] sample(int[] row, int cap) {
+        if (row.length <= cap) return row;
+        sampledRows.incrementAndGet();
+        int[] out = new int[cap];
+        double stride = (double) row.length / cap;
+        for (int i = 0; i < cap; i++) out[i] = row[(int) (i * stride)];
+        return out;
+    }
+
+    /**
+     * Counts, for a range of first-hop followees, how many of them follow each
+     * second-hop account; splits the range until it is small enough.
+     */
+    private class ExpandTask extends RecursiveTask<Map<Integer, Integer>> {
+        /** Serialization version; fork-join tasks are serializable but never serialized. */
+        private static final long serialVersionUID = 1L;
+
+        private final CompactGraph graph;
+        private final int[] followees;
+        private final int from, to;
+
+        ExpandTask(CompactGraph graph, int[] followees, int from, int to) {
+            this.graph = graph;
+            this.followees = followees;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<Integer, Integer> compute() {
+            if (to - from <= LEAF_FOLLOWEES) {
+                Map<Integer, Integer> counts = new HashMap<>();
+                for (int i = from; i < to; i++) {
+                    for (int w : sample(graph.followingOf(followees[i]), HUB_SAMPLE)) {
+                        counts.merge(w, 1, Integer::sum);
+                    }
+                }
+                return counts;
+            }
+            int mid = (from + to) >>> 1;
+            ExpandTask left = new ExpandTask(graph, followees, from, mid);
+            left.fork();
+            Map<Integer, Integer> right = new ExpandTask(graph, followees, mid, to).compute();
+            Map<Integer, Integer> merged = left.join();
+            if (merged.size() < right.size()) {
+                Map<Integer, Integer> t = merged; merged = right; right = t;
+            }
+            for (Map.Entry<Integer, Integer> c : right.entrySet()) {
+                merged.merge(c.getKey(), c.getValue(), Integer::sum);
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Prints cache effectiveness, sampling and computation latency.
+     */
+    public void printReport() {
+        long h = hits.get(), m = misses.get();
+        System.out.println("=== Recommendation Report ===");
+        System.out.printf("Cached users: %d, hits: %d, misses: %d, hit rate: %.1f%%, incremental updates: %d%n",
+                cache.size(), h, m, (h + m) == 0 ? 0.0 : 100.0 * h / (h + m), incrementalUpdates.get());
+        System.out.println("Sampled hub rows: " + sampledRows.get());
+        System.out.println(computeLatency.summary());
+    }
+}
@@ -0,0 +1,256 @@
+package server;
+
+import common.Constants;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Singleton bounded cache of SEARCH results keyed by (user, query, lang).
+ * Caches the resolved file name and the followee owners having the requested caption,
+ * i.e. the output of the followee scan and owner filter. Entries expire after a TTL,
+ * the least recently used entry is evicted when full, and writes that could change a
+ * result invalidate exactly the affected entries.
+ */
+public class SearchCache {
+    /** Singleton instance of SearchCache. */
+    private static SearchCache instance = null;
+
+    /**
+     * A cached search result.
+     */
+    public static class Entry {
+        /** The searching client's numeric ID. */
+        final String userId;
+        /** The raw (trimmed) query text. */
+        final String query;
+        /** The photo file name the query resolved to. */
+        final String fileName;
+        /** The title a misspelled query was corrected to, or null for exact matches. */
+        final String correctedTitle;
+        /** Owners visible to the user that hold a caption in the requested language. */
+        final Set<String> owners;
+        /** Creation time in milliseconds, for TTL expiry. */
+        final long createdAt;
+        /** Owner ID → score computed when the first page was served, or null. */
+        private volatile Map<String, Double> scores;
+
+        Entry(String userId, String query, String fileName, String correctedTitle, Set<String> owners) {
+            this.userId = userId;
+            this.query = query;
+            this.fileName = fileName;
+            this.correctedTitle = correctedTitle;
+            this.owners = Collections.unmodifiableSet(new LinkedHashSet<>(owners));
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        /** @return the photo file name the query resolved to */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /** @return the title a misspelled query was corrected to, or null */
+        public String getCorrectedTitle() {
+            return correctedTitle;
+        }
+
+        /** @return an unmodifiable view of the matching owners */
+        public Set<String> getOwners() {
+            return owners;
+        }
+
+        /** @return the owner scores computed when the first page was served, or null */
+        public Map<String, Double> getScores() {
+            return scores;
+        }
+
+        /**
+         * Keeps the scores the first page was selected from, for the following pages.
+         *
+         * @param scores owner ID → score
+         */
+        public void setScores(Map<String, Double> scores) {
+            this.scores = Collections.unmodifiableMap(scores);
+        }
+    }
+
+    /** LRU map from "userId|lang|query" to cached entries; guarded by this. */
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > Constants.SEARCH_CACHE_MAX_ENTRIES) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /** Number of lookups answered from the cache. */
+    private final AtomicLong hits = new AtomicLong();
+    /** Number of lookups that had to be recomputed. */
+    private final AtomicLong misses = new AtomicLong();
+    /** Number of entries dropped because their TTL elapsed. */
+    private final AtomicLong expirations = new AtomicLong();
+    /** Number of entries evicted to respect the size bound. */
+    private final AtomicLong evictions = new AtomicLong();
+    /** Number of entries removed by invalidation. */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Bumped on every invalidation call; a result computed before a bump may be stale
+     * and is not inserted.
+     */
+    private long generation = 0;
+
+    /** Private constructor for singleton pattern. */
+    private SearchCache() { }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the SearchCache instance
+     */
+    public static SearchCache getInstance() {
+        if (instance == null) {
+            instance = new SearchCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Looks up a cached result, counting a hit or miss.
+     *
+     * @param userId the searching client's numeric ID
+     * @param query  the trimmed query text
+     * @param lang   the requested caption language
+     * @return the cached entry, or null if absent or expired
+     */
+    public synchronized Entry get(String userId, String query, String lang) {
+        String key = key(userId, query, lang);
+        Entry e = entries.get(key);
+        if (e != null && System.currentTimeMillis() - e.createdAt > Constants.SEARCH_CACHE_TTL_MS) {
+            entries.remove(key);
+            expirations.incrementAndGet();
+            e = null;
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return e;
+    }
+
+    /**
+     * Returns the current invalidation generation; pass it to {@link #put} so that
+     * a result computed concurrently with an invalidation is discarded.
+     *
+     * @return the current generation
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches a freshly computed result unless an invalidation happened since
+     * {@code generationAtStart} was read.
+     *
+     * @param userId            the searching client's numeric ID
+     * @param query             the trimmed query text
+     * @param lang              the requested caption language
+     * @param fileName          the file name the query resolved to
+     * @param correctedTitle    the title a misspelled query was corrected to, or null
+     * @param owners            the matching owners
+     * @param generationAtStart the generation read before computing the result
+     * @return the cached entry, or null if it was discarded as possibly stale
+     */
+    public synchronized Entry put(String userId, String query, String lang,
+                                 String fileName, String correctedTitle,
+                                 Set<String> owners, long generationAtStart) {
+        if (generationAtStart != generation) return null;
+        Entry e = new Entry(userId, query, fileName, correctedTitle, owners);
+        entries.put(key(userId, query, lang), e);
+        return e;
+    }
+
+    /**
+     * Invalidates every entry belonging to a user, e.g. after their followees change.
+     *
+     * @param userId the numeric ID whose cached searches to drop
+     */
+    public void invalidateUser(String userId) {
+        invalidate(e -> e.userId.equals(userId));
+    }
+
+    /**
+     * Invalidates entries affected by an upload: searches for the photo's title,
+     * searches by its file name, searches that resolved to that file, and empty
+     * results whose query is a near miss of the title (fuzzy search could now match it).
+     *
+     * @param title    the uploaded photo title
+     * @param fileName the uploaded photo file name
+     */
+    public void invalidatePhoto(String title, String fileName) {
+        String titleKey = title.trim().toLowerCase();
+        invalidate(e -> e.query.toLowerCase().equals(titleKey)
+                || e.query.equals(fileName)
+                || e.fileName.equals(fileName)
+                || (e.owners.isEmpty()
+                        && TitleTrigramIndex.isFuzzyMatch(e.query.toLowerCase(), titleKey)));
+    }
+
+    /**
+     * Invalidates entries whose result depends on the given file, e.g. after a
+     * caption write or a new copy of the photo.
+     *
+     * @param fileName the photo file name
+     */
+    public void invalidateFile(String fileName) {
+        invalidate(e -> e.fileName.equals(fileName) || e.query.equals(fileName));
+    }
+
+    /**
+     * Removes all entries matching the predicate and bumps the generation.
+     *
+     * @param matches selects the entries to remove
+     */
+    private synchronized void invalidate(Predicate<Entry> matches) {
+        generation++;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (matches.test(it.next())) {
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Builds the map key for a search.
+     */
+    private static String key(String userId, String query, String lang) {
+        return userId + "|" + lang + "|" + query;
+    }
+
+    /**
+     * Prints cache size, hit rate and eviction/invalidation counters.
+     */
+    public synchronized void printReport() {
+        long h = hits.get(), m = misses.get();
+        double rate = (h + m) == 0 ? 0.0 : 100.0 * h / (h + m);
+        System.out.println("=== Search Cache Report ===");
+        System.out.printf("Entries: %d/%d (TTL %d ms)%n",
+                entries.size(), Constants.SEARCH_CACHE_MAX_ENTRIES, Constants.SEARCH_CACHE_TTL_MS);
+        System.out.printf("Hits: %d, misses: %d, hit rate: %.1f%%%n", h, m, rate);
+        System.out.printf("Invalidations: %d, expirations: %d, evictions: %d%n",
+                invalidations.get(), expirations.get(), evictions.get());
+    }
+}
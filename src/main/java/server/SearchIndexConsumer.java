@@ -0,0 +1,27 @@
+package server;
+
+/**
+ * EventBus consumer updating the search indexes for uploaded photos. The titles
+ * logged for a batch are synced to disk once, at the end of the batch.
+ */
+public class SearchIndexConsumer implements EventBus.Consumer {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String name() {
+        return "Search indexing";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEvent(DomainEvent e, boolean endOfBatch) {
+        if (e instanceof DomainEvent.PhotoUploaded) {
+            FileManager.indexUpload((DomainEvent.PhotoUploaded) e);
+        }
+        if (endOfBatch) StartupIndexer.getInstance().syncTitleLog();
+    }
+}
@@ -0,0 +1,193 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Ranks the owners of a photo for SEARCH results and pages through them.
+ * An owner's score combines how many downloads they have served for the photo,
+ * how recently they obtained their copy, and whether they are online now.
+ *<p>
+ * A page is selected with a heap bounded to the page size, so only the owners
+ * shown are ever sorted. The cursor is the (score, owner) key of the last owner
+ * shown, and the next page holds the best owners ranked after that key. Scores
+ * change over time (recency decays, owners come and go online), so they are
+ * computed once for the first page and kept with the search's cache entry; while
+ * the entry lives, pages come from the same scores and an owner is never shown
+ * twice or skipped. If the entry was evicted, the owners are scored again and
+ * the page continues after the key; an owner whose score changed across the key
+ * meanwhile may then be skipped or repeated.
+ */
+public class SearchRanker {
+
+    /** Weight of log(1 + downloads served by the owner for this photo). */
+    private static final double DOWNLOAD_WEIGHT = 2.0;
+    /** Weight of the recency term, which decays from 1 towards 0. */
+    private static final double RECENCY_WEIGHT = 1.0;
+    /** Bonus for owners currently connected. */
+    private static final double ONLINE_WEIGHT = 3.0;
+    /** Age in milliseconds at which the recency term has decayed to 1/e. */
+    private static final double RECENCY_DECAY_MS = 24 * 60 * 60 * 1000.0;
+
+    /**
+     * Maps a photo file name to owner ID → time (ms) the owner obtained their copy.
+     */
+    private static final ConcurrentMap<String, ConcurrentMap<String, Long>> acquiredAt =
+            new ConcurrentHashMap<>();
+
+    /** Best-first order: higher score first, ties broken by owner ID. */
+    private static final Comparator<Scored> BEST_FIRST = Comparator
+            .comparingDouble((Scored s) -> s.score).reversed()
+            .thenComparing(s -> s.ownerId);
+
+    /**
+     * An owner with its computed score.
+     */
+    private static class Scored {
+        final String ownerId;
+        final double score;
+
+        Scored(String ownerId, double score) {
+            this.ownerId = ownerId;
+            this.score = score;
+        }
+    }
+
+    /**
+     * One page of ranked owners.
+     */
+    public static class Page {
+        /** Owner IDs in rank order, best first. */
+        private final List<String> owners;
+        /** Cursor for the next page, or null if this is the last page. */
+        private final String nextCursor;
+
+        Page(List<String> owners, String nextCursor) {
+            this.owners = owners;
+            this.nextCursor = nextCursor;
+        }
+
+        /** @return owner IDs in rank order, best first */
+        public List<String> getOwners() {
+            return owners;
+        }
+
+        /** @return the cursor for the next page, or null if there is none */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * Records that an owner obtained a copy of the photo now (upload or download).
+     *
+     * @param fileName the photo file name
+     * @param ownerId  the numeric ID of the new owner
+     */
+    public static void recordAcquired(String fileName, String ownerId) {
+        acquiredAt.computeIfAbsent(fileName, k -> new ConcurrentHashMap<>())
+                .put(ownerId, System.currentTimeMillis());
+    }
+
+    /**
+     * Scores all owners of a photo, as of now.
+     *
+     * @param fileName the photo file name
+     * @param owners   the candidate owners (already filtered for visibility)
+     * @return owner ID → score
+     */
+    public static Map<String, Double> scoreAll(String fileName, Collection<String> owners) {
+        long now = System.currentTimeMillis();
+        Map<String, Double> scores = new HashMap<>();
+        for (String ownerId : owners) scores.put(ownerId, score(fileName, ownerId, now));
+        return scores;
+    }
+
+    /**
+     * Selects the best owners ranked after the cursor, keeping at most pageSize
+     * of them in a heap whose head is the worst kept.
+     *
+     * @param scores   owner ID → score, from {@link #scoreAll}
+     * @param cursor   the cursor returned with the previous page, or null for the first page
+     * @param pageSize the maximum number of owners to return
+     * @return the page of owners and the cursor for the following page
+     */
+    public static Page page(Map<String, Double> scores, String cursor, int pageSize) {
+        Scored after = decodeCursor(cursor);
+        PriorityQueue<Scored> heap = new PriorityQueue<>(pageSize + 1, BEST_FIRST.reversed());
+        boolean more = false;
+        for (Map.Entry<String, Double> e : scores.entrySet()) {
+            Scored s = new Scored(e.getKey(), e.getValue());
+            if (after != null && BEST_FIRST.compare(s, after) <= 0) continue;
+            heap.offer(s);
+            if (heap.size() > pageSize) {
+                heap.poll();
+                more = true;
+            }
+        }
+        List<Scored> best = new ArrayList<>(heap);
+        best.sort(BEST_FIRST);
+        List<String> owners = new ArrayList<>(best.size());
+        for (Scored s : best) owners.add(s.ownerId);
+        String next = more ? encodeCursor(best.get(best.size() - 1)) : null;
+        return new Page(Collections.unmodifiableList(owners), next);
+    }
+
+    /**
+     * Checks whether an owner is currently connected.
+     *
+     * @param ownerId the numeric ID of the owner
+     * @return true if the owner has an active ClientHandler
+     */
+    public static boolean isOnline(String ownerId) {
+        return PresenceService.getInstance().isOnline(ownerId);
+    }
+
+    /**
+     * Scores one owner of a photo.
+     */
+    private static double score(String fileName, String ownerId, long now) {
+        int served = DownloadStatisticsManager.getServedCount(fileName, ownerId);
+        double s = DOWNLOAD_WEIGHT * Math.log1p(served);
+
+        ConcurrentMap<String, Long> times = acquiredAt.get(fileName);
+        Long at = times == null ? null : times.get(ownerId);
+        if (at != null) {
+            s += RECENCY_WEIGHT * Math.exp(-(now - at) / RECENCY_DECAY_MS);
+        }
+        if (isOnline(ownerId)) {
+            s += ONLINE_WEIGHT;
+        }
+        return s;
+    }
+
+    /**
+     * Encodes the key of the last owner shown as "score/ownerId".
+     */
+    private static String encodeCursor(Scored last) {
+        return last.score + "/" + last.ownerId;
+    }
+
+    /**
+     * Decodes a cursor into the key pages continue after; malformed or missing
+     * cursors start from the first page.
+     */
+    private static Scored decodeCursor(String cursor) {
+        if (cursor == null) return null;
+        int slash = cursor.indexOf('/');
+        if (slash <= 0) return null;
+        try {
+            return new Scored(cursor.substring(slash + 1), Double.parseDouble(cursor.substring(0, slash)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -40,20 +40,29 @@ public class ServerMain {
                 + " ServerMain: DirectoryWatcher started for 'ServerFiles' directory.");
 
         // Register shutdown hook as a fallback (in case someone kills the JVM normally).
-        Runtime.getRuntime().addShutdownHook(
-                new Thread(DownloadStatisticsManager::printReport)
-        );
+        // JVM hooks run concurrently, so one hook orders the steps: events still in
+        // the bus are drained before the search snapshot is saved and the WAL closed.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            EventBus.getInstance().drain();
+            StartupIndexer.getInstance().saveSnapshot();
+            GraphWal.getInstance().shutdown();
+            printStatistics();
+        }, "ShutdownHook"));
 
-        // Start a console‐command listener to allow "shutdown" or "exit".
+        // Start a console‐command listener to allow "shutdown", "exit" or "stats".
         Thread consoleThread = new Thread(() -> {
             Scanner scanner = new Scanner(System.in);
-            System.out.println("Type 'shutdown' or 'exit' to stop the server and print statistics.");
+            System.out.println("Type 'shutdown' or 'exit' to stop the server and print statistics, "
+                    + "or 'stats' to print them now.");
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine().trim().toLowerCase();
                 if (line.equals("shutdown") || line.equals("exit")) {
                     System.out.println("ServerMain: Shutdown command received.");
                     System.exit(0);
                 }
+                if (line.equals("stats")) {
+                    printStatistics();
+                }
             }
         }, "ConsoleListener");
         consoleThread.setDaemon(true);
@@ -64,8 +73,20 @@ public class ServerMain {
             System.out.println(Util.getTimestamp()
                     + " ServerMain: Server started on port " + Constants.SERVER_PORT);
 
-            // Load the initial social graph from file.
-            SocialGraphManager.getInstance().loadSocialGraph("src/SocialGraph.txt");
+            // Recover the social graph from its snapshot and WAL (or the initial file).
+            GraphWal.getInstance().recover(SocialGraphManager.getInstance(), "src/SocialGraph.txt");
+
+            // Restore photo/title search indexes from the snapshot and ServerFiles.
+            StartupIndexer.getInstance().rebuild("ServerFiles");
+
+            // Rebuild the caption full-text index from captions already on disk.
+            CaptionIndex.getInstance().buildFromDisk("ServerFiles");
+
+            // Recover post ID counters from the post store indexes.
+            PostStore.getInstance().recover();
+
+            // Load the outboxes of pull-mode (high-follower) accounts.
+            FanoutEngine.getInstance().loadOutboxes();
 
             // Continuously accept and dispatch client connections.
             while (true) {
@@ -82,6 +103,27 @@ public class ServerMain {
         }
     }
 
+    /**
+     * Prints every statistics report kept by the server managers.
+     */
+    public static void printStatistics() {
+        DownloadStatisticsManager.printReport();
+        SearchCache.getInstance().printReport();
+        TitleTrigramIndex.getInstance().printReport();
+        SocialGraphManager.getInstance().printReport();
+        RecommendationEngine.getInstance().printReport();
+        FanoutEngine.getInstance().printReport();
+        EventBus.getInstance().printReport();
+        NotificationRouter.getInstance().printReport();
+        NotificationLog.getInstance().printReport();
+        NotificationManager.getInstance().printReport();
+        PresenceService.getInstance().printReport();
+        LeaseTimer.getInstance().printReport();
+        PostStore.getInstance().printReport();
+        ProfileManager.getInstance().printReport();
+        GraphWal.getInstance().printReport();
+    }
+
     /**
      * Main method to launch the ServerMain.
      *
@@ -0,0 +1,224 @@
+package server;
+
+import common.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk loader for the social graph text file, where each line holds a client ID
+ * followed by the IDs of its followers, separated by whitespace.
+ *<p>
+ * The file is memory-mapped and cut into chunks at line boundaries, one batch of
+ * chunks per core. Each worker parses integers straight from the mapped bytes into
+ * primitive edge arrays, without creating Strings, and the two CSR directions of
+ * the CompactGraph are then built in parallel from the combined edge arrays.
+ */
+public class SocialGraphLoader {
+
+    /** Upper bound on the bytes mapped for one chunk. */
+    private static final long MAX_CHUNK_BYTES = 256L << 20;
+    /** Chunks per worker thread, so uneven line lengths still balance out. */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /**
+     * Edges parsed from one chunk of the file.
+     */
+    private static class ChunkEdges {
+        /** Followed user of each edge. */
+        int[] followee = new int[1024];
+        /** Following user of each edge. */
+        int[] follower = new int[1024];
+        /** Number of edges parsed. */
+        int count = 0;
+        /** Highest user ID seen. */
+        int maxId = 0;
+        /** Tokens that were not non-negative integers and were skipped. */
+        int invalid = 0;
+
+        /** Appends the edge follower → followee. */
+        void add(int followeeId, int followerId) {
+            if (count == followee.length) {
+                followee = Arrays.copyOf(followee, count * 2);
+                follower = Arrays.copyOf(follower, count * 2);
+            }
+            followee[count] = followeeId;
+            follower[count] = followerId;
+            count++;
+            maxId = Math.max(maxId, Math.max(followeeId, followerId));
+        }
+    }
+
+    /** Not instantiable. */
+    private SocialGraphLoader() { }
+
+    /**
+     * Loads a social graph file in parallel.
+     *
+     * @param file the social graph file
+     * @return the graph
+     * @throws IOException if the file cannot be read
+     */
+    public static CompactGraph load(Path file) throws IOException {
+        long start = System.nanoTime();
+        int workers = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+
+            // 1) Cut the file into chunks that start at line beginnings
+            long chunks = Math.max((long) workers * CHUNKS_PER_WORKER,
+                    (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+            // A tiny file gets at most one chunk per byte
+            chunks = Math.min(chunks, Math.max(1, size));
+            List<long[]> ranges = new ArrayList<>();
+            long from = 0;
+            for (long i = 1; i <= chunks && from < size; i++) {
+                long to = i == chunks ? size : lineStartAtOrAfter(ch, size * i / chunks, size);
+                if (to > from) ranges.add(new long[] { from, to });
+                from = Math.max(from, to);
+            }
+
+            // 2) Parse each chunk on a worker
+            List<Future<ChunkEdges>> futures = new ArrayList<>();
+            for (long[] r : ranges) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, r[0], r[1] - r[0]);
+                futures.add(pool.submit(() -> parse(buf)));
+            }
+            List<ChunkEdges> parsed = new ArrayList<>();
+            long total = 0;
+            int maxId = 0;
+            int invalid = 0;
+            for (Future<ChunkEdges> f : futures) {
+                ChunkEdges c = get(f);
+                parsed.add(c);
+                total += c.count;
+                maxId = Math.max(maxId, c.maxId);
+                invalid += c.invalid;
+            }
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IOException("Too many edges for one graph: " + total);
+            }
+
+            // 3) Concatenate the chunk arrays
+            int count = (int) total;
+            int[] followee = new int[count];
+            int[] follower = new int[count];
+            int pos = 0;
+            for (ChunkEdges c : parsed) {
+                System.arraycopy(c.followee, 0, followee, pos, c.count);
+                System.arraycopy(c.follower, 0, follower, pos, c.count);
+                pos += c.count;
+            }
+            parsed.clear();
+
+            // 4) Build both CSR directions in parallel
+            int rows = count == 0 ? 1 : maxId + 1;
+            Future<CompactGraph.Csr> in  = pool.submit(() -> CompactGraph.buildCsr(followee, follower, count, rows));
+            Future<CompactGraph.Csr> out = pool.submit(() -> CompactGraph.buildCsr(follower, followee, count, rows));
+            CompactGraph.Csr followers = get(in);
+            CompactGraph graph = new CompactGraph(followers, get(out), followers.targets.length);
+
+            double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            System.out.printf("%s SocialGraphLoader: Loaded %,d edges (%,d bytes, %d chunks, %d workers) "
+                            + "in %.2f s: %,.0f edges/sec, %.1f MB/s%s%n",
+                    Util.getTimestamp(), graph.edgeCount(), size, ranges.size(), workers, secs,
+                    total / secs, size / secs / (1 << 20),
+                    invalid > 0 ? ", skipped " + invalid + " non-numeric IDs" : "");
+            return graph;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the first line start at or after pos: pos itself if the previous byte
+     * is a newline (or pos is 0), otherwise the byte after the next newline (or size).
+     */
+    private static long lineStartAtOrAfter(FileChannel ch, long pos, long size) throws IOException {
+        if (pos == 0) return 0;
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        long p = pos - 1;
+        while (p < size) {
+            buf.clear();
+            int n = ch.read(buf, p);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return p + i + 1;
+            }
+            p += n;
+        }
+        return size;
+    }
+
+    /**
+     * Parses the lines of one chunk. The first token of a line is the followed
+     * client; a line whose first token is not a non-negative integer is skipped,
+     * as is any such follower token.
+     */
+    private static ChunkEdges parse(MappedByteBuffer buf) {
+        ChunkEdges edges = new ChunkEdges();
+        int limit = buf.limit();
+        int owner = -1;
+        boolean firstToken = true;
+        boolean inToken = false;
+        boolean bad = false;
+        long value = 0;
+        for (int i = 0; i <= limit; i++) {
+            byte b = i < limit ? buf.get(i) : (byte) '\n';
+            if (b == '\n' || b == ' ' || b == '\t' || b == '\r') {
+                if (inToken) {
+                    int id = bad ? -1 : (int) value;
+                    if (bad) edges.invalid++;
+                    if (firstToken) {
+                        owner = id;
+                        firstToken = false;
+                    } else if (owner >= 0 && id >= 0) {
+                        edges.add(owner, id);
+                    }
+                    inToken = false;
+                    bad = false;
+                    value = 0;
+                }
+                if (b == '\n') {
+                    owner = -1;
+                    firstToken = true;
+                }
+            } else {
+                inToken = true;
+                if (b >= '0' && b <= '9' && !bad) {
+                    value = value * 10 + (b - '0');
+                    if (value > Integer.MAX_VALUE) bad = true;
+                } else {
+                    bad = true;
+                }
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Waits for a worker result, rethrowing its failure as an IOException.
+     */
+    private static <T> T get(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading the social graph", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Social graph worker failed: " + e.getCause(), e.getCause());
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package server;
 
+import common.Constants;
 import common.Message;
 import common.Message.MessageType;
 import common.Util;
 
 import java.util.*;
 import java.io.*;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 
 /**
  * Singleton managing the social graph of follower relationships among clients.
@@ -17,9 +20,14 @@ public class SocialGraphManager {
     private static SocialGraphManager instance = null;
 
     /**
-     * Maps each client numeric ID to the set of IDs that follow them.
+     * Follower graph over int client IDs, holding both the followers and the
+     * followees of each client (forward and reverse adjacency). Safe for
+     * concurrent use; replaced as a whole when the graph file is loaded.
      */
-    private HashMap<String, Set<String>> socialGraph = new HashMap<>();
+    private volatile CompactGraph socialGraph = new CompactGraph();
+
+    /** Time from receiving an accepting FOLLOW_RESPONSE until the new edges are durable. */
+    private final LatencyTracker followAcceptLatency = new LatencyTracker("Follow acceptance");
 
     /** Private constructor for singleton pattern. */
     private SocialGraphManager() { }
@@ -38,29 +46,41 @@ public class SocialGraphManager {
 
     /**
      * Loads the social graph from a text file where each line contains a client ID
-     * followed by its follower IDs separated by whitespace.
+     * followed by its follower IDs separated by whitespace. The file is parsed in
+     * parallel by SocialGraphLoader.
      *
      * @param filename the path to the social graph file
      */
     public void loadSocialGraph(String filename) {
-        try (Scanner scanner = new Scanner(new File(filename))) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-                if (line.isEmpty()) continue;
-                String[] parts = line.split("\\s+");
-                String clientId = parts[0];
-                Set<String> followers = new HashSet<>();
-                for (int i = 1; i < parts.length; i++) {
-                    followers.add(parts[i]);
-                }
-                socialGraph.put(clientId, followers);
-            }
-            System.out.println("SocialGraphManager: Social graph loaded successfully from " + filename);
-        } catch (FileNotFoundException e) {
+        try {
+            socialGraph = SocialGraphLoader.load(Paths.get(filename));
+            System.out.println("SocialGraphManager: Social graph loaded successfully from " + filename
+                    + " (" + socialGraph.edgeCount() + " edges)");
+        } catch (NoSuchFileException e) {
             System.out.println("SocialGraphManager: File " + filename + " not found. " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("SocialGraphManager: Error loading " + filename + ": " + e.getMessage());
         }
     }
 
+    /**
+     * Returns the current graph.
+     *
+     * @return the follower graph
+     */
+    CompactGraph getGraph() {
+        return socialGraph;
+    }
+
+    /**
+     * Replaces the graph, e.g. with one recovered from a snapshot.
+     *
+     * @param graph the new follower graph
+     */
+    void setGraph(CompactGraph graph) {
+        socialGraph = graph;
+    }
+
     /**
      * Determines whether a requester follows a target client.
      * Self-following is always false.
@@ -75,26 +95,107 @@ public class SocialGraphManager {
             System.out.println("SocialGraphManager: isFollowing(" + requesterId + ", " + targetId + ") = false (self-following)");
             return false;
         }
-        Set<String> followers = socialGraph.get(targetId);
-        boolean result = followers != null && followers.contains(requesterId);
+        int requester = toIntId(requesterId), target = toIntId(targetId);
+        boolean result = requester >= 0 && target >= 0 && socialGraph.hasEdge(requester, target);
         System.out.println("SocialGraphManager: isFollowing(" + requesterId + ", " + targetId + ") = " + result);
         return result;
     }
 
     /**
-     * Retrieves the set of client IDs that the given client follows.
+     * Checks whether one client follows another, without logging; for hot loops.
+     *
+     * @param followerId the numeric ID of the possible follower
+     * @param followeeId the numeric ID of the possibly followed client
+     * @return true if followerId follows followeeId
+     */
+    boolean follows(String followerId, String followeeId) {
+        int follower = toIntId(followerId), followee = toIntId(followeeId);
+        return follower >= 0 && followee >= 0 && socialGraph.hasEdge(follower, followee);
+    }
+
+    /**
+     * Retrieves the set of client IDs that the given client follows,
+     * read from the reverse adjacency in O(degree).
      *
      * @param clientId the numeric ID of the client
      * @return a Set of numeric IDs that clientId follows
      */
     public Set<String> getFollowees(String clientId) {
-        Set<String> followees = new HashSet<>();
-        for (Map.Entry<String, Set<String>> e : socialGraph.entrySet()) {
-            if (e.getValue().contains(clientId)) {
-                followees.add(e.getKey());
-            }
+        int id = toIntId(clientId);
+        return id < 0 ? new HashSet<>() : toIdSet(socialGraph.followingOf(id));
+    }
+
+    /**
+     * Records that followerId follows followeeId, updating the forward and
+     * reverse adjacency together.
+     *
+     * @param followerId the numeric ID of the follower
+     * @param followeeId the numeric ID of the client being followed
+     * @return true if the edge was added; false if it already existed
+     */
+    private boolean addEdge(String followerId, String followeeId) {
+        int follower = toIntId(followerId), followee = toIntId(followeeId);
+        if (follower < 0 || followee < 0 || !socialGraph.addEdge(follower, followee)) return false;
+        RecommendationEngine.getInstance().edgeChanged(socialGraph, follower, followee, true);
+        FanoutEngine.getInstance().followed(followerId, followeeId);
+        PresenceService.getInstance().edgeChanged(followerId, followeeId, true);
+        return true;
+    }
+
+    /**
+     * Removes the relationship followerId → followeeId from the forward and
+     * reverse adjacency together.
+     *
+     * @param followerId the numeric ID of the follower
+     * @param followeeId the numeric ID of the client being followed
+     * @return true if the edge existed and was removed
+     */
+    private boolean removeEdge(String followerId, String followeeId) {
+        int follower = toIntId(followerId), followee = toIntId(followeeId);
+        if (follower < 0 || followee < 0 || !socialGraph.removeEdge(follower, followee)) return false;
+        RecommendationEngine.getInstance().edgeChanged(socialGraph, follower, followee, false);
+        FanoutEngine.getInstance().unfollowed(followerId, followeeId);
+        PresenceService.getInstance().edgeChanged(followerId, followeeId, false);
+        return true;
+    }
+
+    /**
+     * Sends a DIAGNOSTIC message to a client if it is connected.
+     *
+     * @param clientId the numeric client ID
+     * @param text     the message text
+     */
+    private static void sendDiagnostic(String clientId, String text) {
+        ClientHandler h = ClientHandler.activeClients.get(clientId);
+        if (h != null) h.sendExternalMessage(new Message(MessageType.DIAGNOSTIC, "Server", text));
+    }
+
+    /**
+     * Converts a numeric client ID string to the int ID used by the graph.
+     *
+     * @param clientId the numeric client ID
+     * @return the int ID, or -1 if the string is not a non-negative integer
+     */
+    private static int toIntId(String clientId) {
+        try {
+            int id = Integer.parseInt(clientId);
+            return id >= 0 ? id : -1;
+        } catch (NumberFormatException e) {
+            System.out.println("SocialGraphManager: Ignoring non-numeric client ID '" + clientId + "'");
+            return -1;
         }
-        return followees;
+    }
+
+    /**
+     * Converts an adjacency row of int IDs to a set of client ID strings.
+     *
+     * @param ids the int IDs
+     * @return a new mutable Set of client ID strings
+     */
+    private static Set<String> toIdSet(int[] ids) {
+        Set<String> set = new HashSet<>(ids.length * 2);
+        for (int id : ids) set.add(Integer.toString(id));
+        return set;
     }
 
     /**
@@ -117,9 +218,6 @@ public class SocialGraphManager {
 
         String notif = "User " + requesterUsername + " requested to follow you";
 
-        // Queue offline notification
-        NotificationManager.getInstance().addNotification(targetNumericId, notif);
-
         // Confirm to requester
         ClientHandler requesterHandler = ClientHandler.activeClients.get(requesterNumericId);
         if (requesterHandler != null) {
@@ -130,32 +228,29 @@ public class SocialGraphManager {
             ));
         }
 
-        // Live prompt if target is online and not the same handler
-        ClientHandler targetHandler = ClientHandler.activeClients.get(targetNumericId);
-        if (targetHandler != null && targetHandler != requesterHandler) {
-            Message followRequest = new Message(
-                    MessageType.FOLLOW_REQUEST,
-                    "Server",
-                    requesterUsername + ":" + requesterNumericId
-            );
-            targetHandler.sendExternalMessage(followRequest);
-            // purge the queued copy
-            NotificationManager.getInstance().removeNotification(targetNumericId, notif);
-            System.out.println(Util.getTimestamp()
-                    + " SocialGraphManager: Sent FOLLOW_REQUEST to " + targetUsername);
-        } else if (targetHandler == null) {
-            System.out.println(Util.getTimestamp()
-                    + " SocialGraphManager: Target (" + targetUsername + ") not online. Notification queued.");
-        }
+        // Live prompt if the target is online, otherwise a notification for their next login
+        if (targetNumericId.equals(requesterNumericId)) return;
+        Message followRequest = new Message(
+                MessageType.FOLLOW_REQUEST,
+                "Server",
+                requesterUsername + ":" + requesterNumericId
+        );
+        NotificationRouter.getInstance().deliver(targetNumericId, followRequest,
+                        NotificationKind.FOLLOW_REQUEST, requesterUsername, notif)
+                .thenAccept(live -> System.out.println(Util.getTimestamp() + " SocialGraphManager: "
+                        + (live ? "Sent FOLLOW_REQUEST to " + targetUsername
+                                : "Target (" + targetUsername + ") not online. Notification queued.")));
     }
 
     /**
      * Processes a follow response by updating the social graph according to
-     * "accept", "reciprocate", or "reject" decision, then notifying both parties.
+     * "accept", "reciprocate", or "reject" decision, then notifying both parties
+     * once the new edges are durable, without blocking the request thread.
      *
      * @param msg the Message containing requesterUsername:decision payload
      */
     public void handleFollowResponse(Message msg) {
+        long start = System.nanoTime();
         String payload = msg.getPayload();
         String[] parts = payload.split(":", 2);
         if (parts.length != 2) {
@@ -175,49 +270,79 @@ public class SocialGraphManager {
         String targetNumericId = msg.getSenderId();
         String targetUsername = AuthenticationManager.getUsernameByNumericId(targetNumericId);
 
-        String requesterNotification;
-        String targetConfirmation;
-
         switch (decision) {
-            case "reciprocate":
-                socialGraph.putIfAbsent(targetNumericId, new HashSet<>());
-                socialGraph.get(targetNumericId).add(requesterNumericId);
-                socialGraph.putIfAbsent(requesterNumericId, new HashSet<>());
-                socialGraph.get(requesterNumericId).add(targetNumericId);
-                requesterNotification = "User " + targetUsername + " reciprocated your follow request";
-                targetConfirmation  = "You have reciprocated the follow request from " + requesterUsername;
+            case "reciprocate": {
+                boolean added = addEdge(requesterNumericId, targetNumericId);
+                boolean addedBack = addEdge(targetNumericId, requesterNumericId);
+                SearchCache.getInstance().invalidateUser(targetNumericId);
+                SearchCache.getInstance().invalidateUser(requesterNumericId);
+                GraphWal.getInstance().whenDurable().thenAcceptAsync(durable -> {
+                    if (!durable) {
+                        // Not saved: undo, so the graph matches what the responder is told
+                        if (added) removeEdge(requesterNumericId, targetNumericId);
+                        if (addedBack) removeEdge(targetNumericId, requesterNumericId);
+                        sendDiagnostic(targetNumericId, "Could not save the follow of " + requesterUsername
+                                + "; please respond again");
+                        return;
+                    }
+                    followAcceptLatency.recordSince(start);
+                    confirmFollowResponse(decision, requesterNumericId, targetNumericId,
+                            "User " + targetUsername + " reciprocated your follow request",
+                            "You have reciprocated the follow request from " + requesterUsername);
+                });
                 break;
+            }
 
-            case "accept":
-                socialGraph.putIfAbsent(targetNumericId, new HashSet<>());
-                socialGraph.get(targetNumericId).add(requesterNumericId);
-                requesterNotification = "User " + targetUsername + " accepted your follow request";
-                targetConfirmation  = "You have accepted the follow request from " + requesterUsername;
+            case "accept": {
+                boolean added = addEdge(requesterNumericId, targetNumericId);
+                SearchCache.getInstance().invalidateUser(requesterNumericId);
+                GraphWal.getInstance().whenDurable().thenAcceptAsync(durable -> {
+                    if (!durable) {
+                        if (added) removeEdge(requesterNumericId, targetNumericId);
+                        sendDiagnostic(targetNumericId, "Could not save the follow of " + requesterUsername
+                                + "; please respond again");
+                        return;
+                    }
+                    followAcceptLatency.recordSince(start);
+                    confirmFollowResponse(decision, requesterNumericId, targetNumericId,
+                            "User " + targetUsername + " accepted your follow request",
+                            "You have accepted the follow request from " + requesterUsername);
+                });
                 break;
+            }
 
             case "reject":
-                requesterNotification = "User " + targetUsername + " rejected your follow request";
-                targetConfirmation  = "You have rejected the follow request from " + requesterUsername;
+                confirmFollowResponse(decision, requesterNumericId, targetNumericId,
+                        "User " + targetUsername + " rejected your follow request",
+                        "You have rejected the follow request from " + requesterUsername);
                 break;
 
             default:
                 System.out.println("SocialGraphManager: FOLLOW_RESPONSE received with unknown decision.");
-                return;
+                break;
         }
+    }
 
-        // Queue and send notifications
-        NotificationManager.getInstance().addNotification(requesterNumericId, requesterNotification);
-
-        // Live push to requester if online, then purge queued copy
-        ClientHandler requesterHandler = ClientHandler.activeClients.get(requesterNumericId);
-        if (requesterHandler != null) {
-            requesterHandler.sendExternalMessage(new Message(
-                    MessageType.DIAGNOSTIC,
-                    "Server",
-                    requesterNotification
-            ));
-            NotificationManager.getInstance()
-                    .removeNotification(requesterNumericId, requesterNotification);
+    /**
+     * Notifies the requester of a follow response and confirms it to the
+     * responder; for an accepted follow, called once the new edges are durable.
+     *
+     * @param decision              "accept", "reciprocate" or "reject"
+     * @param requesterNumericId    the numeric ID of the client who asked to follow
+     * @param targetNumericId       the numeric ID of the responding client
+     * @param requesterNotification the notification for the requester
+     * @param targetConfirmation    the confirmation for the responder
+     */
+    private void confirmFollowResponse(String decision, String requesterNumericId, String targetNumericId,
+                                       String requesterNotification, String targetConfirmation) {
+        String targetUsername = AuthenticationManager.getUsernameByNumericId(targetNumericId);
+        if (decision.equals("reject")) {
+            NotificationRouter.getInstance().deliver(requesterNumericId, NotificationKind.FOLLOW_RESPONSE,
+                    targetUsername, requesterNotification);
+        } else {
+            // The requester is notified by the FollowAccepted consumers
+            EventBus.getInstance().publish(new DomainEvent.FollowAccepted(requesterNumericId,
+                    targetNumericId, decision.equals("reciprocate"), requesterNotification));
         }
 
         // Immediate confirmation to the responder
@@ -232,8 +357,9 @@ public class SocialGraphManager {
     }
 
     /**
-     * Processes an unfollow request by removing the relationship,
-     * notifying the requester immediately and the target asynchronously.
+     * Processes an unfollow request by removing the relationship, then,
+     * once the change is durable, notifying the requester and the target on
+     * a pool thread so the request thread never waits on the WAL fsync.
      *
      * @param msg the Message containing the target username payload
      */
@@ -249,46 +375,50 @@ public class SocialGraphManager {
             return;
         }
 
+        // Fan-out positions to put back if the unfollow cannot be saved
+        FanoutEngine fanout = FanoutEngine.getInstance();
+        Integer position = fanout.positionOf(requesterNumericId, targetNumericId);
+        Integer positionBack = fanout.positionOf(targetNumericId, requesterNumericId);
+
         // Remove requester from target's followers
-        Set<String> targetFollowers = socialGraph.get(targetNumericId);
-        if (targetFollowers != null && targetFollowers.remove(requesterNumericId)) {
+        boolean removed = removeEdge(requesterNumericId, targetNumericId);
+        if (removed) {
             System.out.println(Util.getTimestamp()
                     + " SocialGraphManager: " + requesterUsername + " unfollowed " + targetUsername);
         }
 
         // Also remove mutual follow if present
-        Set<String> requesterFollowers = socialGraph.get(requesterNumericId);
-        if (requesterFollowers != null && requesterFollowers.remove(targetNumericId)) {
+        boolean removedBack = removeEdge(targetNumericId, requesterNumericId);
+        if (removedBack) {
             System.out.println(Util.getTimestamp()
                     + " SocialGraphManager: Also removed " + targetUsername
                     + " from " + requesterUsername + "'s followers.");
         }
 
-        // Notify the requester
-        ClientHandler requesterHandler = ClientHandler.activeClients.get(requesterNumericId);
-        if (requesterHandler != null) {
-            requesterHandler.sendExternalMessage(new Message(
-                    MessageType.DIAGNOSTIC,
-                    "Server",
-                    "You have unfollowed " + targetUsername
-            ));
-        }
-
-        String notif = "User " + requesterUsername + " unfollowed you";
+        // Followees of both sides may have changed
+        SearchCache.getInstance().invalidateUser(requesterNumericId);
+        SearchCache.getInstance().invalidateUser(targetNumericId);
+        GraphWal.getInstance().whenDurable().thenAcceptAsync(durable -> {
+            if (!durable) {
+                // Not saved: restore the edges and let the requester retry
+                if (removed && addEdge(requesterNumericId, targetNumericId)) {
+                    fanout.restorePosition(requesterNumericId, targetNumericId, position);
+                }
+                if (removedBack && addEdge(targetNumericId, requesterNumericId)) {
+                    fanout.restorePosition(targetNumericId, requesterNumericId, positionBack);
+                }
+                sendDiagnostic(requesterNumericId, "Could not save unfollowing " + targetUsername
+                        + "; please try again");
+                return;
+            }
 
-        // Queue notification for the target
-        NotificationManager.getInstance().addNotification(targetNumericId, notif);
+            // Notify the requester
+            sendDiagnostic(requesterNumericId, "You have unfollowed " + targetUsername);
 
-        // If the target is online, push live and purge the queued copy
-        ClientHandler targetHandler = ClientHandler.activeClients.get(targetNumericId);
-        if (targetHandler != null) {
-            targetHandler.sendExternalMessage(new Message(
-                    MessageType.DIAGNOSTIC,
-                    "Server",
-                    notif
-            ));
-            NotificationManager.getInstance().removeNotification(targetNumericId, notif);
-        }
+            String notif = "User " + requesterUsername + " unfollowed you";
+            NotificationRouter.getInstance().deliver(targetNumericId, NotificationKind.UNFOLLOW,
+                    requesterUsername, notif);
+        });
     }
 
     /**
@@ -300,7 +430,7 @@ public class SocialGraphManager {
      */
     public void handleListFollowers(Message msg, ObjectOutputStream output) {
         String requesterId = msg.getSenderId();
-        Set<String> followers = socialGraph.getOrDefault(requesterId, Collections.emptySet());
+        Set<String> followers = getFollowers(requesterId);
         StringBuilder sb = new StringBuilder();
         for (String id : followers) {
             String name = AuthenticationManager.getUsernameByNumericId(id);
@@ -358,6 +488,69 @@ public class SocialGraphManager {
      * @return a Set of follower numeric IDs
      */
     public Set<String> getFollowers(String uploaderNumericId) {
-        return socialGraph.getOrDefault(uploaderNumericId, new HashSet<>());
+        int id = toIntId(uploaderNumericId);
+        return id < 0 ? new HashSet<>() : toIdSet(socialGraph.followersOf(id));
+    }
+
+    /**
+     * Returns an immutable snapshot of a client's followers for fan-out. The array
+     * is never modified, so it can be iterated without copying or locking while
+     * follows and unfollows keep being applied.
+     *
+     * @param uploaderNumericId the numeric ID of the client whose followers to retrieve
+     * @return the sorted follower IDs; must not be modified
+     */
+    public int[] getFollowerSnapshot(String uploaderNumericId) {
+        int id = toIntId(uploaderNumericId);
+        return id < 0 ? new int[0] : socialGraph.followersOf(id);
+    }
+
+    /**
+     * Handles a RECOMMEND request by sending back the suggested accounts as a
+     * comma-separated list of "username(mutual connections)". Accounts without a
+     * registered username cannot be followed and are left out.
+     *
+     * @param msg    the Message whose sender asks for suggestions
+     * @param output the stream to send RECOMMEND_RESPONSE
+     */
+    public void handleRecommend(Message msg, ObjectOutputStream output) {
+        String requesterId = msg.getSenderId();
+        int id = toIntId(requesterId);
+        StringBuilder sb = new StringBuilder();
+        if (id >= 0) {
+            // Over-fetch so that dropping unregistered IDs still fills the list
+            List<int[]> candidates = RecommendationEngine.getInstance()
+                    .recommend(socialGraph, id, Constants.RECOMMEND_LIMIT * 2);
+            int shown = 0;
+            for (int[] c : candidates) {
+                if (shown == Constants.RECOMMEND_LIMIT) break;
+                String name = AuthenticationManager.getUsernameByNumericId(Integer.toString(c[0]));
+                if (name == null) continue;
+                sb.append(name).append('(').append(c[1]).append("), ");
+                shown++;
+            }
+        }
+        String list = sb.length() > 0 ? sb.substring(0, sb.length() - 2) : "";
+        try {
+            output.writeObject(new Message(
+                    MessageType.RECOMMEND_RESPONSE,
+                    "Server",
+                    list
+            ));
+            output.flush();
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " SocialGraphManager: Error sending RECOMMEND_RESPONSE: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Prints the edge count and the follow acceptance latency.
+     */
+    public void printReport() {
+        System.out.println("=== Social Graph Report ===");
+        System.out.println("Edges: " + socialGraph.edgeCount() + ", version: " + socialGraph.version());
+        System.out.println(followAcceptLatency.summary());
     }
-}
\ No newline at end of file
+}
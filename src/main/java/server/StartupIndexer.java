@@ -0,0 +1,456 @@
+package server;
+
+import common.Constants;
+import common.Util;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Singleton that rebuilds FileManager's search indexes (photo owners, title owners
+ * and title → file name) from ServerFiles at startup.
+ *<p>
+ * Per-client directories are scanned in parallel on a fork-join pool: photo files
+ * give the owners, and "posted &lt;title&gt;" entries of the Profile_ file give the titles,
+ * matched to a photo by base name. The result is kept as one record per directory
+ * and persisted as a snapshot in ServerData; on the next startup, directories whose
+ * modification time is unchanged since they were scanned are loaded from the
+ * snapshot and only the others are rescanned.
+ *<p>
+ * Profile_ entries hold titles only, so a title that differs from its photo's base
+ * name cannot be matched by a scan. Every uploaded title is therefore also appended
+ * to a title log in ServerData, which is replayed after the scan and compacted to
+ * the live mappings once the indexes are rebuilt.
+ */
+public class StartupIndexer {
+    /** Singleton instance of StartupIndexer. */
+    private static StartupIndexer instance = null;
+
+    /** Identifies snapshot files written by this class. */
+    private static final int SNAPSHOT_MAGIC = 0x53494458;
+    /** Snapshot format version. */
+    private static final int SNAPSHOT_VERSION = 1;
+    /** Marker preceding the title in a Profile_ post entry. */
+    private static final String POSTED = " posted ";
+
+    /**
+     * What one client directory contributes to the search indexes.
+     */
+    static class DirRecord {
+        /** Numeric ID of the client owning the directory. */
+        final String ownerId;
+        /**
+         * Directory modification time when the directory was scanned; 0 for a
+         * record started while the server runs. Changes recorded afterwards do
+         * not update it, so a directory changed since its scan is rescanned.
+         */
+        long modified;
+        /** Photo file names present in the directory. */
+        final Set<String> photos = ConcurrentHashMap.newKeySet();
+        /** Lowercase title → photo file name for the owner's posts. */
+        final Map<String, String> titles = new ConcurrentHashMap<>();
+
+        DirRecord(String ownerId, long modified) {
+            this.ownerId = ownerId;
+            this.modified = modified;
+        }
+    }
+
+    /** Whether titles were appended to the log since it was last synced; guarded by this. */
+    private boolean titleLogDirty;
+
+    /** Current record per owner ID, kept up to date while the server runs. */
+    private final ConcurrentHashMap<String, DirRecord> records = new ConcurrentHashMap<>();
+
+    /** Private constructor for singleton pattern. */
+    private StartupIndexer() { }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the StartupIndexer instance
+     */
+    public static StartupIndexer getInstance() {
+        if (instance == null) {
+            instance = new StartupIndexer();
+        }
+        return instance;
+    }
+
+    /**
+     * Restores the search indexes: loads the snapshot, rescans every directory that
+     * is new or changed since it was written, publishes all records to FileManager,
+     * and writes a fresh snapshot.
+     *
+     * @param rootDir the server files root (e.g. "ServerFiles")
+     */
+    public void rebuild(String rootDir) {
+        long start = System.currentTimeMillis();
+        Map<String, DirRecord> snapshot = loadSnapshot();
+
+        Path root = Paths.get(rootDir);
+        List<Path> stale = new ArrayList<>();
+        String prefix = Constants.GROUP_ID + "client";
+        if (Files.isDirectory(root)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(root)) {
+                for (Path d : ds) {
+                    String name = d.getFileName().toString();
+                    if (!Files.isDirectory(d) || !name.startsWith(prefix)) continue;
+                    String ownerId = name.substring(prefix.length());
+                    DirRecord cached = snapshot.get(ownerId);
+                    if (cached != null && cached.modified == Files.getLastModifiedTime(d).toMillis()) {
+                        records.put(ownerId, cached);
+                    } else {
+                        stale.add(d);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println(Util.getTimestamp()
+                        + " StartupIndexer: Error listing " + rootDir + ": " + e.getMessage());
+            }
+        }
+        int reused = records.size();
+
+        // Rescan new or changed directories in parallel
+        if (!stale.isEmpty()) {
+            AtomicInteger done = new AtomicInteger();
+            ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            try {
+                pool.invoke(new ScanTask(stale, 0, stale.size(), prefix, snapshot, done));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        int replayed = replayTitleLog();
+        for (DirRecord r : records.values()) {
+            publish(r);
+        }
+        System.out.println(Util.getTimestamp() + " StartupIndexer: Indexes ready for "
+                + records.size() + " directories (" + reused + " from snapshot, "
+                + stale.size() + " scanned, " + replayed + " titles from log) in "
+                + (System.currentTimeMillis() - start) + " ms");
+        saveSnapshot();
+        compactTitleLog();
+    }
+
+    /**
+     * Fork-join task scanning a range of directories, split in halves down to one directory.
+     */
+    private class ScanTask extends RecursiveAction {
+        /** Serialization version; fork-join tasks are serializable but never serialized. */
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> dirs;
+        private final int from, to;
+        private final String prefix;
+        private final Map<String, DirRecord> snapshot;
+        private final AtomicInteger done;
+
+        ScanTask(List<Path> dirs, int from, int to, String prefix,
+                 Map<String, DirRecord> snapshot, AtomicInteger done) {
+            this.dirs = dirs;
+            this.from = from;
+            this.to = to;
+            this.prefix = prefix;
+            this.snapshot = snapshot;
+            this.done = done;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                Path dir = dirs.get(from);
+                String ownerId = dir.getFileName().toString().substring(prefix.length());
+                records.put(ownerId, scanDirectory(dir, ownerId, snapshot.get(ownerId)));
+                System.out.println(Util.getTimestamp() + " StartupIndexer: Scanned "
+                        + done.incrementAndGet() + "/" + dirs.size() + " directories (" + dir + ")");
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ScanTask(dirs, from, mid, prefix, snapshot, done),
+                      new ScanTask(dirs, mid, to, prefix, snapshot, done));
+        }
+    }
+
+    /**
+     * Reads one client directory into a record. Title mappings from an older record
+     * are kept while their photo still exists, since Profile_ entries hold titles only.
+     *
+     * @param dir     the client directory
+     * @param ownerId the numeric ID of the owner
+     * @param old     the previous record for this directory, or null
+     * @return the fresh record
+     */
+    private DirRecord scanDirectory(Path dir, String ownerId, DirRecord old) {
+        DirRecord r = new DirRecord(ownerId, 0);
+        String profileName = "Profile_" + Constants.GROUP_ID + "client" + ownerId + ".txt";
+        Map<String, String> byBaseName = new HashMap<>();
+        try {
+            r.modified = Files.getLastModifiedTime(dir).toMillis();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path f : ds) {
+                    String name = f.getFileName().toString();
+                    if (!Files.isRegularFile(f) || name.endsWith(".txt")) continue;
+                    r.photos.add(name);
+                    int dot = name.lastIndexOf('.');
+                    byBaseName.putIfAbsent((dot > 0 ? name.substring(0, dot) : name).toLowerCase(), name);
+                    byBaseName.putIfAbsent(name.toLowerCase(), name);
+                }
+            }
+            if (old != null) {
+                for (Map.Entry<String, String> e : old.titles.entrySet()) {
+                    if (r.photos.contains(e.getValue())) r.titles.put(e.getKey(), e.getValue());
+                }
+            }
+            Path profile = dir.resolve(profileName);
+            if (Files.exists(profile)) {
+                for (String line : Files.readAllLines(profile, StandardCharsets.UTF_8)) {
+                    if (!line.startsWith("PostID:")) continue;
+                    int idx = line.indexOf(POSTED);
+                    if (idx < 0) continue;
+                    String title = line.substring(idx + POSTED.length()).trim().toLowerCase();
+                    String file = byBaseName.get(title);
+                    if (file != null) r.titles.putIfAbsent(title, file);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " StartupIndexer: Error scanning " + dir + ": " + e.getMessage());
+        }
+        return r;
+    }
+
+    /**
+     * Feeds one record into FileManager's indexes and the title trigram index.
+     */
+    private void publish(DirRecord r) {
+        for (String photo : r.photos) {
+            FileManager.indexPhoto(photo, r.ownerId);
+        }
+        for (Map.Entry<String, String> e : r.titles.entrySet()) {
+            FileManager.indexTitle(e.getKey(), e.getValue(), r.ownerId);
+        }
+    }
+
+    /**
+     * Records a photo copy that appeared while the server is running, so the
+     * next snapshot includes it.
+     *
+     * @param ownerId  the numeric ID of the owner
+     * @param fileName the photo file name
+     */
+    public void recordPhoto(String ownerId, String fileName) {
+        records.computeIfAbsent(ownerId, k -> new DirRecord(k, 0)).photos.add(fileName);
+    }
+
+    /**
+     * Records an uploaded title while the server is running, so the next snapshot
+     * keeps the exact title → file mapping, and appends it to the title log so a
+     * restart recovers it even without a snapshot. The append is durable after the
+     * next {@link #syncTitleLog}.
+     *
+     * @param ownerId  the numeric ID of the owner
+     * @param titleKey the lowercase title
+     * @param fileName the photo file name
+     */
+    public void recordTitle(String ownerId, String titleKey, String fileName) {
+        DirRecord r = records.computeIfAbsent(ownerId, k -> new DirRecord(k, 0));
+        r.photos.add(fileName);
+        r.titles.put(titleKey, fileName);
+        appendTitle(ownerId, titleKey, fileName);
+    }
+
+    /**
+     * Appends one title mapping to the title log.
+     */
+    private synchronized void appendTitle(String ownerId, String titleKey, String fileName) {
+        if (titleKey.indexOf('\n') >= 0 || titleKey.indexOf('\r') >= 0) return;
+        Path file = titleLogPath();
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileOutputStream fos = new FileOutputStream(file.toFile(), true)) {
+                fos.write(titleLine(ownerId, fileName, titleKey).getBytes(StandardCharsets.UTF_8));
+            }
+            titleLogDirty = true;
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " StartupIndexer: Error logging title for " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forces titles appended since the last call to disk; called by the search
+     * indexing consumer at the end of each batch, so a batch of uploads costs one
+     * sync.
+     */
+    public synchronized void syncTitleLog() {
+        if (!titleLogDirty) return;
+        try (FileChannel ch = FileChannel.open(titleLogPath(), StandardOpenOption.WRITE)) {
+            ch.force(false);
+            titleLogDirty = false;
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " StartupIndexer: Error syncing title log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Formats a title log line; the title goes last since it may contain tabs.
+     */
+    private static String titleLine(String ownerId, String fileName, String titleKey) {
+        return ownerId + "\t" + fileName + "\t" + titleKey + "\n";
+    }
+
+    /**
+     * Adds every logged title whose photo is still present to its owner's record.
+     *
+     * @return the number of mappings applied
+     */
+    private int replayTitleLog() {
+        Path file = titleLogPath();
+        if (!Files.exists(file)) return 0;
+        int applied = 0;
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] f = line.split("\t", 3);
+                if (f.length < 3) continue;
+                DirRecord r = records.get(f[0]);
+                if (r != null && r.photos.contains(f[1])) {
+                    r.titles.put(f[2], f[1]);
+                    applied++;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " StartupIndexer: Error reading title log: " + e.getMessage());
+        }
+        return applied;
+    }
+
+    /**
+     * Rewrites the title log to hold only the current mappings, dropping entries
+     * for deleted photos and overwritten titles. Written to a temporary file and
+     * moved into place.
+     */
+    private synchronized void compactTitleLog() {
+        Path file = titleLogPath();
+        Path tmp  = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                 Writer out = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+                for (DirRecord r : records.values()) {
+                    for (Map.Entry<String, String> e : r.titles.entrySet()) {
+                        if (e.getKey().indexOf('\n') >= 0 || e.getKey().indexOf('\r') >= 0) continue;
+                        out.write(titleLine(r.ownerId, e.getValue(), e.getKey()));
+                    }
+                }
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            titleLogDirty = false;
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " StartupIndexer: Error compacting title log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes all records to the snapshot file, each with the modification time its
+     * directory had when it was scanned, not the current one: a directory changed
+     * since, whether by an upload, a deletion or another writer, no longer matches
+     * and is rescanned on the next startup. Written to a temporary file and moved
+     * into place.
+     */
+    public void saveSnapshot() {
+        Path file = snapshotPath();
+        Path tmp  = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(records.size());
+                for (DirRecord r : records.values()) {
+                    out.writeUTF(r.ownerId);
+                    out.writeLong(r.modified);
+                    List<String> photos = new ArrayList<>(r.photos);
+                    out.writeInt(photos.size());
+                    for (String p : photos) out.writeUTF(p);
+                    List<Map.Entry<String, String>> titles = new ArrayList<>(r.titles.entrySet());
+                    out.writeInt(titles.size());
+                    for (Map.Entry<String, String> e : titles) {
+                        out.writeUTF(e.getKey());
+                        out.writeUTF(e.getValue());
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println(Util.getTimestamp()
+                    + " StartupIndexer: Saved index snapshot of " + records.size() + " directories");
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " StartupIndexer: Error saving snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the snapshot file, if any.
+     *
+     * @return records keyed by owner ID; empty if there is no usable snapshot
+     */
+    private Map<String, DirRecord> loadSnapshot() {
+        Map<String, DirRecord> result = new HashMap<>();
+        Path file = snapshotPath();
+        if (!Files.exists(file)) return result;
+        long start = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                System.out.println(Util.getTimestamp()
+                        + " StartupIndexer: Ignoring snapshot with unknown format");
+                return result;
+            }
+            int dirs = in.readInt();
+            for (int i = 0; i < dirs; i++) {
+                DirRecord r = new DirRecord(in.readUTF(), in.readLong());
+                int photos = in.readInt();
+                for (int j = 0; j < photos; j++) r.photos.add(in.readUTF());
+                int titles = in.readInt();
+                for (int j = 0; j < titles; j++) r.titles.put(in.readUTF(), in.readUTF());
+                result.put(r.ownerId, r);
+            }
+            System.out.println(Util.getTimestamp() + " StartupIndexer: Loaded snapshot of "
+                    + dirs + " directories in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.out.println(Util.getTimestamp()
+                    + " StartupIndexer: Error reading snapshot, rescanning: " + e.getMessage());
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Location of the index snapshot file.
+     */
+    private static Path snapshotPath() {
+        return Paths.get(Constants.SERVER_DATA_DIR, "search_index.snapshot");
+    }
+
+    /**
+     * Location of the upload title log.
+     */
+    private static Path titleLogPath() {
+        return Paths.get(Constants.SERVER_DATA_DIR, "search_titles.log");
+    }
+}
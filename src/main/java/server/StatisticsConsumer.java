@@ -0,0 +1,46 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EventBus consumer counting domain events by type and measuring the delay
+ * between publication and consumption.
+ */
+public class StatisticsConsumer implements EventBus.Consumer {
+
+    /** Events seen per event type name. */
+    private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    /** Time from publication until this consumer saw the event. */
+    private final LatencyTracker delivery = new LatencyTracker("Event publish-to-consume");
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String name() {
+        return "Statistics";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEvent(DomainEvent e, boolean endOfBatch) {
+        counts.computeIfAbsent(e.getClass().getSimpleName(), k -> new AtomicLong()).incrementAndGet();
+        delivery.recordSince(e.publishedAt);
+    }
+
+    /**
+     * Prints event counts per type and delivery delay.
+     */
+    public void printReport() {
+        System.out.println("=== Domain Event Statistics ===");
+        for (Map.Entry<String, AtomicLong> c : counts.entrySet()) {
+            System.out.println(c.getKey() + ": " + c.getValue().get());
+        }
+        System.out.println(delivery.summary());
+    }
+}
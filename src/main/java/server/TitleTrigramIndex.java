@@ -0,0 +1,189 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton trigram index over lowercase photo titles for typo-tolerant search.
+ * Candidates sharing trigrams with the query are gathered under fixed caps,
+ * then verified with a banded Levenshtein distance bounded by a small edit budget.
+ */
+public class TitleTrigramIndex {
+    /** Singleton instance of TitleTrigramIndex. */
+    private static TitleTrigramIndex instance = null;
+
+    /** Posting lists longer than this are skipped during candidate generation. */
+    private static final int MAX_POSTINGS_PER_GRAM = 2_000;
+    /** Maximum number of candidates passed to edit-distance verification. */
+    private static final int MAX_CANDIDATES = 64;
+
+    /** Maps a trigram to the set of titles containing it. */
+    private final ConcurrentHashMap<String, Set<String>> grams = new ConcurrentHashMap<>();
+
+    /** Latency of fuzzy lookups. */
+    private final LatencyTracker latency = new LatencyTracker("Fuzzy title search");
+    /** Total candidates verified with edit distance, across all lookups. */
+    private final AtomicLong candidatesVerified = new AtomicLong();
+    /** Number of lookups that hit the candidate cap. */
+    private final AtomicLong cappedLookups = new AtomicLong();
+
+    /** Private constructor for singleton pattern. */
+    private TitleTrigramIndex() { }
+
+    /**
+     * Returns the singleton instance, creating it if necessary.
+     *
+     * @return the TitleTrigramIndex instance
+     */
+    public static TitleTrigramIndex getInstance() {
+        if (instance == null) {
+            instance = new TitleTrigramIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Adds a lowercase title to the index.
+     *
+     * @param titleKey the trimmed, lowercase title
+     */
+    public void addTitle(String titleKey) {
+        for (String g : trigrams(titleKey)) {
+            grams.computeIfAbsent(g, k -> ConcurrentHashMap.newKeySet()).add(titleKey);
+        }
+    }
+
+    /**
+     * Finds the indexed titles closest to a (possibly misspelled) query.
+     *
+     * @param queryKey the trimmed, lowercase query
+     * @param limit    the maximum number of matches to return
+     * @return matching titles, closest first; empty if none is within the edit budget
+     */
+    public List<String> search(String queryKey, int limit) {
+        long start = System.nanoTime();
+        try {
+            int budget = maxEdits(queryKey);
+
+            // 1) Count shared trigrams per title, skipping overly common grams
+            Map<String, Integer> shared = new HashMap<>();
+            for (String g : trigrams(queryKey)) {
+                Set<String> titles = grams.get(g);
+                if (titles == null || titles.size() > MAX_POSTINGS_PER_GRAM) continue;
+                for (String t : titles) {
+                    if (Math.abs(t.length() - queryKey.length()) <= budget) {
+                        shared.merge(t, 1, Integer::sum);
+                    }
+                }
+            }
+
+            // 2) Keep the MAX_CANDIDATES titles sharing the most trigrams
+            PriorityQueue<Map.Entry<String, Integer>> top =
+                    new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<String, Integer> e : shared.entrySet()) {
+                top.offer(e);
+                if (top.size() > MAX_CANDIDATES) top.poll();
+            }
+            if (shared.size() > MAX_CANDIDATES) cappedLookups.incrementAndGet();
+            candidatesVerified.addAndGet(top.size());
+
+            // 3) Verify with bounded edit distance
+            List<String[]> matches = new ArrayList<>();
+            for (Map.Entry<String, Integer> e : top) {
+                int d = boundedDistance(queryKey, e.getKey(), budget);
+                if (d <= budget) {
+                    matches.add(new String[] { e.getKey(), Integer.toString(d) });
+                }
+            }
+            matches.sort(Comparator.<String[]>comparingInt(m -> Integer.parseInt(m[1]))
+                    .thenComparing(m -> m[0]));
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < matches.size() && i < limit; i++) {
+                result.add(matches.get(i)[0]);
+            }
+            return result;
+        } finally {
+            latency.recordSince(start);
+        }
+    }
+
+    /**
+     * Checks whether two lowercase strings are within the fuzzy edit budget of the first.
+     *
+     * @param queryKey the query
+     * @param titleKey the title
+     * @return true if a fuzzy search for queryKey could match titleKey
+     */
+    public static boolean isFuzzyMatch(String queryKey, String titleKey) {
+        int budget = maxEdits(queryKey);
+        return boundedDistance(queryKey, titleKey, budget) <= budget;
+    }
+
+    /**
+     * Edit budget for a query: none for very short queries, one for short ones, two otherwise.
+     */
+    private static int maxEdits(String s) {
+        if (s.length() <= 2) return 0;
+        return s.length() <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Computes the Levenshtein distance between a and b, only filling the diagonal
+     * band of width 2k+1; returns k+1 as soon as the distance must exceed k.
+     *
+     * @param a the first string
+     * @param b the second string
+     * @param k the maximum distance of interest
+     * @return the distance if at most k; otherwise k+1
+     */
+    static int boundedDistance(String a, String b, int k) {
+        int n = a.length(), m = b.length();
+        if (Math.abs(n - m) > k) return k + 1;
+        final int INF = k + 1;
+        int[] prev = new int[m + 1];
+        int[] cur  = new int[m + 1];
+        for (int j = 0; j <= m; j++) prev[j] = j <= k ? j : INF;
+        for (int i = 1; i <= n; i++) {
+            int lo = Math.max(1, i - k), hi = Math.min(m, i + k);
+            Arrays.fill(cur, INF);
+            cur[0] = i <= k ? i : INF;
+            int rowMin = cur[0];
+            for (int j = lo; j <= hi; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int v = Math.min(prev[j - 1] + cost, Math.min(prev[j] + 1, cur[j - 1] + 1));
+                cur[j] = Math.min(v, INF);
+                if (cur[j] < rowMin) rowMin = cur[j];
+            }
+            if (rowMin > k) return INF;
+            int[] t = prev; prev = cur; cur = t;
+        }
+        return Math.min(prev[m], INF);
+    }
+
+    /**
+     * Splits a string into trigrams, padded so that short strings and word
+     * boundaries produce grams too.
+     */
+    private static Set<String> trigrams(String s) {
+        Set<String> out = new HashSet<>();
+        String padded = "  " + s + " ";
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            out.add(padded.substring(i, i + 3));
+        }
+        return out;
+    }
+
+    /**
+     * Prints fuzzy lookup latency percentiles and candidate statistics.
+     */
+    public void printReport() {
+        long n = latency.getCount();
+        System.out.println("=== Fuzzy Title Search Report ===");
+        System.out.println(latency.summary());
+        System.out.printf("Indexed trigrams: %d, avg candidates verified: %.1f, capped lookups: %d%n",
+                grams.size(),
+                n == 0 ? 0.0 : (double) candidatesVerified.get() / n,
+                cappedLookups.get());
+    }
+}
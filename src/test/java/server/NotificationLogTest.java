@@ -0,0 +1,147 @@
+package server;
+
+import common.Constants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link NotificationLog}: replay, segment roll, acknowledgement,
+ * compaction and torn-record recovery, on a log in a temporary directory.
+ */
+class NotificationLogTest {
+
+    @TempDir
+    Path root;
+
+    private NotificationLog log;
+
+    @BeforeEach
+    void setUp() {
+        log = new NotificationLog(root);
+    }
+
+    @Test
+    void replaysAppendedRecordsOldestFirst() throws IOException {
+        log.append("1", 100, "first");
+        log.append("1", 200, "second");
+        log.append("2", 300, "other user");
+
+        List<NotificationLog.Entry> entries = log.readUndelivered("1");
+
+        assertEquals(List.of("first", "second"), texts(entries));
+        assertEquals(100, entries.get(0).millis);
+        assertEquals(entries.get(0).end, entries.get(1).start);
+        assertEquals(entries.get(0).epoch, entries.get(1).epoch);
+    }
+
+    @Test
+    void rollsToNewSegmentWhenFullAndReplaysAcrossSegments() throws IOException {
+        String text = "x".repeat(1000);
+        int count = 2 * Constants.NOTIFICATION_SEGMENT_BYTES / text.length();
+        for (int i = 0; i < count; i++) log.append("1", i, text + i);
+
+        assertTrue(segments("1").size() >= 2);
+        List<NotificationLog.Entry> entries = log.readUndelivered("1");
+        assertEquals(count, entries.size());
+        for (int i = 0; i < count; i++) assertEquals(text + i, entries.get(i).text);
+    }
+
+    @Test
+    void acknowledgedRecordsAreNotReplayed() throws IOException {
+        log.append("1", 1, "a");
+        log.append("1", 2, "b");
+        log.append("1", 3, "c");
+        List<NotificationLog.Entry> entries = log.readUndelivered("1");
+
+        // Newest first delivery: acknowledge the last record, then the rest
+        log.acknowledge("1", entries.get(2).epoch, entries.get(2).start, entries.get(2).end);
+        assertEquals(List.of("a", "b"), texts(log.readUndelivered("1")));
+
+        log.acknowledge("1", entries.get(0).epoch, entries.get(0).start, entries.get(1).end);
+        assertTrue(log.readUndelivered("1").isEmpty());
+    }
+
+    @Test
+    void compactionRemovesDeliveredLogAndIgnoresStaleAcknowledgement() throws IOException {
+        log.append("1", 1, "old");
+        NotificationLog.Entry old = log.readUndelivered("1").get(0);
+        log.acknowledge("1", old.epoch, old.start, old.end);
+        log.compact("1");
+        assertFalse(Files.exists(root.resolve("1")));
+
+        // Positions restart from zero in the new directory
+        log.append("1", 2, "new");
+        NotificationLog.Entry fresh = log.readUndelivered("1").get(0);
+        assertEquals(old.start, fresh.start);
+        assertNotEquals(old.epoch, fresh.epoch);
+
+        log.acknowledge("1", old.epoch, old.start, old.end);
+        assertEquals(List.of("new"), texts(log.readUndelivered("1")));
+    }
+
+    @Test
+    void compactionKeepsSegmentsWithUndeliveredRecords() throws IOException {
+        String text = "y".repeat(1000);
+        int count = 2 * Constants.NOTIFICATION_SEGMENT_BYTES / text.length();
+        for (int i = 0; i < count; i++) log.append("1", i, text + i);
+        List<NotificationLog.Entry> entries = log.readUndelivered("1");
+        int segmentsBefore = segments("1").size();
+
+        NotificationLog.Entry last = entries.get(entries.size() - 2);
+        log.acknowledge("1", last.epoch, entries.get(0).start, last.end);
+        log.compact("1");
+
+        assertTrue(segments("1").size() < segmentsBefore);
+        assertEquals(List.of(text + (count - 1)), texts(log.readUndelivered("1")));
+    }
+
+    @Test
+    void tornTailIsCutOffAndLaterAppendsFollowLastGoodRecord() throws IOException {
+        log.append("1", 1, "kept");
+        Path segment = segments("1").get(0);
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ch.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 50, 1, 2, 3}));
+        }
+
+        assertEquals(List.of("kept"), texts(log.readUndelivered("1")));
+        log.append("1", 2, "after");
+        assertEquals(List.of("kept", "after"), texts(log.readUndelivered("1")));
+    }
+
+    @Test
+    void coalescerRewritesLargeBacklog() throws IOException {
+        log.setCoalescer(undelivered -> undelivered.subList(undelivered.size() - 1, undelivered.size()));
+        String text = "z".repeat(1000);
+        int count = 3 * Constants.NOTIFICATION_SEGMENT_BYTES / text.length();
+        for (int i = 0; i < count; i++) log.append("1", i, text + i);
+
+        List<NotificationLog.Entry> entries = log.readUndelivered("1");
+        assertTrue(entries.size() < count);
+        assertEquals(text + (count - 1), entries.get(entries.size() - 1).text);
+    }
+
+    private static List<String> texts(List<NotificationLog.Entry> entries) {
+        List<String> out = new ArrayList<>();
+        for (NotificationLog.Entry e : entries) out.add(e.text);
+        return out;
+    }
+
+    private List<Path> segments(String userId) throws IOException {
+        try (Stream<Path> files = Files.list(root.resolve(userId))) {
+            return files.filter(p -> p.toString().endsWith(".seg")).sorted().toList();
+        }
+    }
+}